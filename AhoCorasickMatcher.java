@@ -0,0 +1,175 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+// Matches a list of literal patterns in one pass. The automaton is built over UTF-8
+// bytes and completed into a DFA, so each input byte costs one table lookup whether
+// there are 5 patterns or 500. Ignoring case, patterns match as they would quoted
+// in a Pattern with CASE_INSENSITIVE | UNICODE_CASE, as LiteralMatcher's do: lines
+// are folded code point by code point, and the byte search, which folds only
+// ASCII, also stops where a non-ASCII form may be, for find() to check.
+final class AhoCorasickMatcher implements LineMatcher, ByteSearcher {
+
+    private final String[] patterns;
+    private final int[] patternChars;
+    private final boolean caseSensitive;
+    // Ignoring case: some pattern is not ASCII, so any non-ASCII byte may start
+    // a match; else some pattern has an i, k or s, whose non-ASCII forms may
+    private final boolean nonAscii;
+    private final boolean foreignForms;
+    private int[] delta;
+    private int[] out;
+    private int states;
+
+    AhoCorasickMatcher(List<String> patternList, boolean caseSensitive) {
+        Set<String> unique = new LinkedHashSet<>();
+        for (String p : patternList) {
+            if (!p.isEmpty() && p.indexOf('\n') < 0) unique.add(p);
+        }
+        if (unique.isEmpty()) {
+            throw new IllegalArgumentException("Search term not provided.");
+        }
+        patterns = unique.toArray(new String[0]);
+        patternChars = new int[patterns.length];
+        this.caseSensitive = caseSensitive;
+        this.nonAscii = !caseSensitive && unique.stream().anyMatch(p -> p.chars().anyMatch(c -> c >= 0x80));
+        this.foreignForms = !caseSensitive && !nonAscii
+            && unique.stream().anyMatch(p -> p.chars().anyMatch(c -> "iksIKS".indexOf(c) >= 0));
+
+        delta = new int[256 * 64];
+        out = new int[64];
+        Arrays.fill(out, -1);
+        states = 1;
+
+        for (int p = 0; p < patterns.length; p++) {
+            patternChars[p] = patterns[p].length();
+            int s = 0;
+            String pattern = caseSensitive ? patterns[p] : fold(patterns[p]);
+            for (byte b : pattern.getBytes(StandardCharsets.UTF_8)) {
+                int c = b & 0xff;
+                if (delta[s * 256 + c] == 0) {
+                    delta[s * 256 + c] = newState();
+                }
+                s = delta[s * 256 + c];
+            }
+            if (out[s] < 0) out[s] = p;
+        }
+        link();
+
+        if (!caseSensitive) {
+            for (int s = 0; s < states; s++) {
+                for (int c = 'A'; c <= 'Z'; c++) {
+                    delta[s * 256 + c] = delta[s * 256 + c + 32];
+                }
+            }
+        }
+    }
+
+    int size() {
+        return patterns.length;
+    }
+
+    @Override
+    public Hit find(CharSequence line) {
+        int s = 0;
+        int i = 0;
+        while (i < line.length()) {
+            int cp = Character.codePointAt(line, i);
+            i += Character.charCount(cp);
+            s = step(s, caseSensitive || cp < 0x80 ? cp : fold(cp));
+            if (out[s] >= 0) {
+                int p = out[s];
+                return new Hit(i - patternChars[p], i, p);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String patternOf(Hit hit) {
+        return hit.pattern() < 0 ? null : patterns[hit.pattern()];
+    }
+
+    @Override
+    public int indexIn(ByteBuffer buf, int from, int to) {
+        int s = 0;
+        for (int i = from; i < to; i++) {
+            int b = buf.get(i) & 0xff;
+            if (nonAscii && b >= 0x80) return i;
+            s = delta[(s << 8) | b];
+            if (out[s] >= 0) {
+                return foreignForms ? LiteralMatcher.indexOfForeignForm(buf, from, i, i) : i;
+            }
+        }
+        return foreignForms ? LiteralMatcher.indexOfForeignForm(buf, from, to, -1) : -1;
+    }
+
+    // Feeds the UTF-8 encoding of one code point
+    private int step(int s, int cp) {
+        if (cp < 0x80) {
+            return delta[(s << 8) | cp];
+        }
+        if (cp < 0x800) {
+            s = delta[(s << 8) | (0xc0 | cp >> 6)];
+        } else if (cp < 0x10000) {
+            s = delta[(s << 8) | (0xe0 | cp >> 12)];
+            s = delta[(s << 8) | (0x80 | (cp >> 6 & 0x3f))];
+        } else {
+            s = delta[(s << 8) | (0xf0 | cp >> 18)];
+            s = delta[(s << 8) | (0x80 | (cp >> 12 & 0x3f))];
+            s = delta[(s << 8) | (0x80 | (cp >> 6 & 0x3f))];
+        }
+        return delta[(s << 8) | (0x80 | (cp & 0x3f))];
+    }
+
+    private int newState() {
+        if (states == out.length) {
+            delta = Arrays.copyOf(delta, delta.length * 2);
+            out = Arrays.copyOf(out, out.length * 2);
+            Arrays.fill(out, states, out.length, -1);
+        }
+        return states++;
+    }
+
+    // Breadth-first failure links; missing edges are filled from the failure state
+    // so the trie becomes a complete DFA
+    private void link() {
+        int[] fail = new int[states];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < 256; c++) {
+            int child = delta[c];
+            if (child != 0) queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            if (out[s] < 0) out[s] = out[fail[s]];
+            for (int c = 0; c < 256; c++) {
+                int child = delta[s * 256 + c];
+                if (child != 0) {
+                    fail[child] = delta[fail[s] * 256 + c];
+                    queue.add(child);
+                } else {
+                    delta[s * 256 + c] = delta[fail[s] * 256 + c];
+                }
+            }
+        }
+    }
+
+    // The way Pattern compares code points with UNICODE_CASE
+    private static int fold(int cp) {
+        return Character.toLowerCase(Character.toUpperCase(cp));
+    }
+
+    private static String fold(String pattern) {
+        StringBuilder folded = new StringBuilder(pattern.length());
+        pattern.codePoints().forEach(cp -> folded.appendCodePoint(fold(cp)));
+        return folded.toString();
+    }
+}
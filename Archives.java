@@ -0,0 +1,191 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+// Reads the files packed in an archive, decompressed on the fly and never
+// written to disk: gzip (all members of a multi-member file, as rotated logs
+// often are), tar, plain or gzipped, and zip, which includes jar, war and ear.
+// A file inside an archive is named archive!entry, the way jar: URLs spell it;
+// a gzip file holds one, named after the archive without its .gz.
+final class Archives {
+
+    enum Kind { GZIP, TAR, TAR_GZIP, ZIP }
+
+    private static final int BUFFER = 64 << 10;
+    private static final int BLOCK = 512;
+
+    private Archives() {
+    }
+
+    // Called for each file in an archive with a stream of its bytes, which is only
+    // good until it returns; false skips the rest of the archive
+    interface EntryReader {
+        boolean read(String name, InputStream in) throws IOException;
+    }
+
+    // null when file is not an archive, by its name
+    static Kind kindOf(Path file) {
+        Path name = file.getFileName();
+        return name == null ? null : kindOf(name.toString());
+    }
+
+    private static Kind kindOf(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".tar.gz") || lower.endsWith(".tgz")) return Kind.TAR_GZIP;
+        if (lower.endsWith(".tar")) return Kind.TAR;
+        if (lower.endsWith(".gz")) return Kind.GZIP;
+        if (lower.endsWith(".zip") || lower.endsWith(".jar") || lower.endsWith(".war") || lower.endsWith(".ear")) {
+            return Kind.ZIP;
+        }
+        return null;
+    }
+
+    static Path entry(Path archive, String name) {
+        return Path.of(archive + "!" + name);
+    }
+
+    // Whether file names a file inside an archive rather than one on disk
+    static boolean isEntry(Path file) {
+        return archiveOf(file) != null;
+    }
+
+    // The archive file is inside, or null when it is a file on disk
+    static Path archiveOf(Path file) {
+        String path = file.toString();
+        for (int bang = path.indexOf('!'); bang >= 0; bang = path.indexOf('!', bang + 1)) {
+            String archive = path.substring(0, bang);
+            if (kindOf(archive) != null) return Path.of(archive);
+        }
+        return null;
+    }
+
+    // Streams the files of a gzip or tar archive to reader, in order. Zip archives
+    // are read with ZipFile instead, which can open their entries in any order and
+    // several at once.
+    static void read(Path archive, Kind kind, EntryReader reader) throws IOException {
+        try (InputStream file = Files.newInputStream(archive)) {
+            InputStream in = new BufferedInputStream(file, BUFFER);
+            switch (kind) {
+                case GZIP -> {
+                    String name = archive.getFileName().toString();
+                    reader.read(name.substring(0, name.length() - 3), new GZIPInputStream(in, BUFFER));
+                }
+                case TAR -> readTar(in, reader);
+                case TAR_GZIP -> readTar(new BufferedInputStream(new GZIPInputStream(in, BUFFER), BUFFER), reader);
+                default -> throw new IllegalArgumentException("Not a stream archive: " + archive);
+            }
+        }
+    }
+
+    // ustar and the GNU and pax long-name extensions; links, folders and devices
+    // have no content and are passed over
+    private static void readTar(InputStream in, EntryReader reader) throws IOException {
+        byte[] header = new byte[BLOCK];
+        String longName = null;
+        while (in.readNBytes(header, 0, BLOCK) == BLOCK && !isZero(header)) {
+            long size = size(header);
+            byte type = header[156];
+            String name = longName != null ? longName : name(header);
+            longName = null;
+            if (type == 'L') {
+                longName = text(in.readNBytes((int) size), 0, (int) size);
+            } else if (type == 'x') {
+                longName = paxPath(in.readNBytes((int) size));
+            } else if (type == '0' || type == 0 || type == '7') {
+                EntryStream entry = new EntryStream(in, size);
+                if (!reader.read(name, entry)) return;
+                in.skipNBytes(entry.left);
+            } else {
+                in.skipNBytes(size);
+            }
+            in.skipNBytes((BLOCK - size % BLOCK) % BLOCK);
+        }
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) return false;
+        }
+        return true;
+    }
+
+    private static String name(byte[] header) {
+        String name = text(header, 0, 100);
+        // ustar keeps the folders of long paths in a prefix field
+        if (text(header, 257, 5).equals("ustar")) {
+            String prefix = text(header, 345, 155);
+            if (!prefix.isEmpty()) return prefix + "/" + name;
+        }
+        return name;
+    }
+
+    // Octal, or base-256 with the top bit set for sizes of 8 GB and more
+    private static long size(byte[] header) throws IOException {
+        if ((header[124] & 0x80) != 0) {
+            long size = 0;
+            for (int i = 125; i < 136; i++) size = size << 8 | (header[i] & 0xff);
+            return size;
+        }
+        String octal = text(header, 124, 12).trim();
+        try {
+            return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad tar header");
+        }
+    }
+
+    // The path record of a pax header, each record being "length key=value\n"
+    private static String paxPath(byte[] records) {
+        String text = new String(records, StandardCharsets.UTF_8);
+        for (String record : text.split("\n")) {
+            int space = record.indexOf(' ');
+            if (space >= 0 && record.startsWith("path=", space + 1)) return record.substring(space + 6);
+        }
+        return null;
+    }
+
+    // NUL-terminated
+    private static String text(byte[] bytes, int from, int length) {
+        int end = from;
+        while (end < from + length && end < bytes.length && bytes[end] != 0) end++;
+        return new String(bytes, from, end - from, StandardCharsets.UTF_8);
+    }
+
+    // One tar entry's bytes; closing it leaves the archive open
+    private static final class EntryStream extends InputStream {
+
+        private final InputStream in;
+        private long left;
+
+        EntryStream(InputStream in, long size) {
+            this.in = in;
+            this.left = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (left == 0) return -1;
+            int b = in.read();
+            if (b < 0) throw new IOException("Truncated tar entry");
+            left--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (left == 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, left));
+            if (n < 0) throw new IOException("Truncated tar entry");
+            left -= n;
+            return n;
+        }
+    }
+}
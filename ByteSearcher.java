@@ -0,0 +1,11 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+
+// Matchers that can find hits in raw file bytes, so FileScanner can skip decoding
+// lines that cannot match
+interface ByteSearcher {
+
+    // Index of a byte inside the next hit in [from, to), or -1
+    int indexIn(ByteBuffer buf, int from, int to);
+}
@@ -0,0 +1,120 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+// Decides from the first SAMPLE bytes of a file whether it is text, and in which
+// charset. A byte order mark wins; otherwise a NUL byte means binary, valid UTF-8
+// means UTF-8, and anything else is binary when it is full of control bytes and
+// a single-byte legacy charset when it is not.
+final class ContentSniffer {
+
+    static final int SAMPLE = 8 << 10;
+    // Share of control bytes above which invalid UTF-8 is taken for binary
+    private static final double CONTROL_LIMIT = 0.10;
+    static final Charset LEGACY = Charset.isSupported("windows-1252")
+        ? Charset.forName("windows-1252") : StandardCharsets.ISO_8859_1;
+
+    // bomLength bytes at the start of the file are not part of the first line
+    record Content(boolean binary, Charset charset, int bomLength) {
+
+        static final Content BINARY = new Content(true, StandardCharsets.ISO_8859_1, 0);
+
+        boolean utf16() {
+            return charset.equals(StandardCharsets.UTF_16LE) || charset.equals(StandardCharsets.UTF_16BE);
+        }
+    }
+
+    private ContentSniffer() {
+    }
+
+    // n bytes from the start of the file; truncated when the file goes on after
+    // them. forced, when not null, is the charset given with --encoding.
+    static Content sniff(ByteBuffer buf, int n, boolean truncated, Charset forced) {
+        int b0 = n > 0 ? buf.get(0) & 0xff : -1;
+        int b1 = n > 1 ? buf.get(1) & 0xff : -1;
+        if (b0 == 0xef && b1 == 0xbb && n > 2 && (buf.get(2) & 0xff) == 0xbf) {
+            return new Content(false, StandardCharsets.UTF_8, 3);
+        }
+        if (b0 == 0xff && b1 == 0xfe) {
+            return new Content(false, StandardCharsets.UTF_16LE, 2);
+        }
+        if (b0 == 0xfe && b1 == 0xff) {
+            return new Content(false, StandardCharsets.UTF_16BE, 2);
+        }
+
+        if (forced != null) {
+            Charset charset = withByteOrder(forced);
+            boolean wide = charset.equals(StandardCharsets.UTF_16LE) || charset.equals(StandardCharsets.UTF_16BE);
+            return !wide && indexOfNul(buf, n) >= 0 ? Content.BINARY : new Content(false, charset, 0);
+        }
+        if (indexOfNul(buf, n) >= 0) {
+            return Content.BINARY;
+        }
+        if (validUtf8(buf, n, truncated)) {
+            return new Content(false, StandardCharsets.UTF_8, 0);
+        }
+        return controlShare(buf, n) > CONTROL_LIMIT ? Content.BINARY : new Content(false, LEGACY, 0);
+    }
+
+    // UTF-16 with its byte order spelled out, as FileScanner needs it to split
+    // lines; without a byte order mark UTF-16 is big-endian
+    private static Charset withByteOrder(Charset charset) {
+        String name = charset.name().toUpperCase(Locale.ROOT);
+        if (!name.contains("UTF-16")) return charset;
+        return name.contains("UTF-16LE") ? StandardCharsets.UTF_16LE : StandardCharsets.UTF_16BE;
+    }
+
+    private static int indexOfNul(ByteBuffer buf, int n) {
+        return FileScanner.indexOf(buf, 0, n, (byte) 0);
+    }
+
+    private static boolean validUtf8(ByteBuffer buf, int n, boolean truncated) {
+        int i = 0;
+        while (i < n) {
+            int b = buf.get(i) & 0xff;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+            int extra;
+            int min;
+            if (b >= 0xc2 && b <= 0xdf) {
+                extra = 1;
+                min = 0x80;
+            } else if (b >= 0xe0 && b <= 0xef) {
+                extra = 2;
+                min = 0x800;
+            } else if (b >= 0xf0 && b <= 0xf4) {
+                extra = 3;
+                min = 0x10000;
+            } else {
+                return false;
+            }
+            if (i + extra >= n) {
+                // The sample may have cut this sequence short
+                return truncated;
+            }
+            int cp = b & (0x3f >> extra);
+            for (int k = 1; k <= extra; k++) {
+                int c = buf.get(i + k) & 0xff;
+                if ((c & 0xc0) != 0x80) return false;
+                cp = cp << 6 | (c & 0x3f);
+            }
+            if (cp < min || cp > 0x10ffff || (cp >= 0xd800 && cp <= 0xdfff)) return false;
+            i += extra + 1;
+        }
+        return true;
+    }
+
+    private static double controlShare(ByteBuffer buf, int n) {
+        int control = 0;
+        for (int i = 0; i < n; i++) {
+            int b = buf.get(i) & 0xff;
+            if (b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f' && b != 0x1b) control++;
+        }
+        return n == 0 ? 0 : (double) control / n;
+    }
+}
@@ -0,0 +1,192 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// Runs searches in a PergDaemon. connect() returns null when no daemon is up,
+// and callers then search in process. Results arrive as the same Match and
+// SearchStats objects a local SearchEngine gives, with paths spelled the way
+// the caller gave them.
+final class DaemonClient {
+
+    private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+    private final URI base;
+    private final String token;
+    private volatile long searchId = -1;
+    private volatile boolean cancelled;
+    // The daemon's summary line of the last search, as perg-cli would print it
+    private volatile String summary;
+
+    private DaemonClient(int port, String token) {
+        this.base = URI.create("http://127.0.0.1:" + port);
+        this.token = token;
+    }
+
+    static DaemonClient connect() {
+        try {
+            if (!Files.exists(PergDaemon.INFO)) return null;
+            String[] info = Files.readString(PergDaemon.INFO).trim().split(" ");
+            DaemonClient client = new DaemonClient(Integer.parseInt(info[0]), info[1]);
+            HttpResponse<Void> pong = client.http.send(client.request("/ping").timeout(Duration.ofSeconds(1))
+                .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.discarding());
+            return pong.statusCode() == 200 ? client : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // Searches files, or dir when there are none. Bad options and patterns throw
+    // IllegalArgumentException, as they do locally.
+    SearchStats search(SearchOptions options, Path dir, List<Path> files, SearchListener listener)
+            throws IOException, InterruptedException {
+        StringBuilder body = new StringBuilder("{\"args\":[");
+        List<String> args = options.toArgs();
+        for (int i = 0; i < args.size(); i++) {
+            if (i > 0) body.append(',');
+            Json.appendString(body, args.get(i));
+        }
+        body.append("],\"dir\":");
+        Json.appendString(body, dir.toAbsolutePath().normalize().toString());
+        body.append(",\"files\":[");
+        for (int i = 0; i < files.size(); i++) {
+            if (i > 0) body.append(',');
+            Json.appendString(body, files.get(i).toAbsolutePath().normalize().toString());
+        }
+        body.append("]}");
+
+        PathMapper paths = new PathMapper(dir, files);
+        HttpResponse<Stream<String>> response = http.send(
+            request("/search").POST(HttpRequest.BodyPublishers.ofString(body.toString())).build(),
+            HttpResponse.BodyHandlers.ofLines());
+        try (Stream<String> lines = response.body()) {
+            SearchStats stats = null;
+            for (Iterator<String> it = lines.iterator(); it.hasNext(); ) {
+                String line = it.next();
+                Map<String, Object> event = Json.parseObject(line);
+                switch (String.valueOf(event.get("type"))) {
+                    case "started" -> {
+                        searchId = number(event, "id");
+                        if (cancelled) cancel();
+                    }
+                    case "heartbeat" -> {
+                    }
+                    case "warning" -> listener.onWarning(String.valueOf(event.get("message")));
+                    case "error" -> throw new IllegalArgumentException(String.valueOf(event.get("message")));
+                    case "summary" -> {
+                        summary = line;
+                        stats = stats(event);
+                    }
+                    default -> listener.onMatch(match(event, paths));
+                }
+            }
+            if (stats == null) throw new IOException("The search daemon ended the search without a summary.");
+            return stats;
+        }
+    }
+
+    String lastSummary() {
+        return summary;
+    }
+
+    // Callable from any thread, before or during search()
+    void cancel() {
+        cancelled = true;
+        long id = searchId;
+        if (id < 0) return;
+        http.sendAsync(request("/cancel?id=" + id).POST(HttpRequest.BodyPublishers.noBody()).build(),
+            HttpResponse.BodyHandlers.discarding());
+    }
+
+    void shutdown() throws IOException, InterruptedException {
+        http.send(request("/shutdown").POST(HttpRequest.BodyPublishers.noBody()).build(),
+            HttpResponse.BodyHandlers.discarding());
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(base.resolve(path))
+            .header(PergDaemon.TOKEN_HEADER, token)
+            .header(PergDaemon.CLIENT_HEADER, System.getProperty("user.name"));
+    }
+
+    private static Match match(Map<String, Object> event, PathMapper paths) {
+        Path file = paths.shown(Path.of(String.valueOf(event.get("path"))));
+        Match.Kind kind = Match.Kind.valueOf(String.valueOf(event.get("type")).toUpperCase(Locale.ROOT));
+        return switch (kind) {
+            case SEPARATOR -> Match.separator(file);
+            case FILE -> Match.fileName(file);
+            case BINARY -> Match.binary(file);
+            default -> new Match(file, number(event, "line"), number(event, "offset"), String.valueOf(event.get("text")),
+                (int) number(event, "start"), (int) number(event, "end"), (String) event.get("pattern"), kind);
+        };
+    }
+
+    // The figures the summary line carries; the rest stay at their defaults
+    private static SearchStats stats(Map<String, Object> summary) {
+        SearchStats stats = new SearchStats();
+        stats.filesScanned.add(number(summary, "files"));
+        stats.filesCached.add(number(summary, "files_cached"));
+        stats.filesSkipped.add(number(summary, "files_skipped"));
+        stats.filesBinary.add(number(summary, "files_binary"));
+        stats.bytesRead.add(number(summary, "bytes"));
+        stats.linesScanned.add(number(summary, "lines"));
+        stats.matchedLines.add(number(summary, "matched_lines"));
+        stats.wallNanos = millisToNanos(number(summary, "elapsed_ms"));
+        stats.discoveryNanos = millisToNanos(number(summary, "discovery_ms"));
+        long firstMatch = number(summary, "first_match_ms");
+        stats.firstMatchNanos = firstMatch < 0 ? -1 : millisToNanos(firstMatch);
+        stats.openNanos.add(millisToNanos(number(summary, "open_ms")));
+        stats.readNanos.add(millisToNanos(number(summary, "read_ms")));
+        stats.scanNanos.add(millisToNanos(number(summary, "scan_ms")));
+        stats.matchNanos.add(millisToNanos(number(summary, "matcher_ms")));
+        stats.workers = (int) Math.max(1, number(summary, "workers"));
+        stats.maxQueueDepth.accumulate(number(summary, "queue_max"));
+        if (summary.get("stopped") instanceof String reason) stats.stopReason = reason;
+        return stats;
+    }
+
+    private static long millisToNanos(long millis) {
+        return millis * 1_000_000;
+    }
+
+    private static long number(Map<String, Object> event, String key) {
+        return event.get(key) instanceof Number n ? n.longValue() : -1;
+    }
+
+    // The daemon reports absolute paths; these turn them back into the caller's
+    // spelling, so output is the same as from a local search
+    private static final class PathMapper {
+
+        private final Path dir;
+        private final Path absDir;
+        private final List<Path> files;
+        private final List<Path> absFiles = new ArrayList<>();
+
+        PathMapper(Path dir, List<Path> files) {
+            this.dir = dir;
+            this.absDir = dir.toAbsolutePath().normalize();
+            this.files = files;
+            for (Path f : files) absFiles.add(f.toAbsolutePath().normalize());
+        }
+
+        Path shown(Path path) {
+            int i = absFiles.indexOf(path);
+            if (i >= 0) return files.get(i);
+            return path.startsWith(absDir) ? dir.resolve(absDir.relativize(path)) : path;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+// Walks a directory tree on a work-stealing pool and hands every file to the
+// scanners through a bounded queue as soon as it is found. Follows the same
+// recursive and hidden-file rules as findAll() in perg.cpp, then PathFilter's;
+// folders a filter rejects are not opened at all.
+final class DirectoryWalker implements AutoCloseable {
+
+    // Put on the queue once the whole tree has been walked
+    static final Path END = Path.of("");
+
+    private final SearchOptions options;
+    private final BlockingQueue<Path> queue;
+    private final ForkJoinPool pool;
+    private final Queue<String> warnings = new ConcurrentLinkedQueue<>();
+    private final LongAdder filesFound = new LongAdder();
+    private final LongAdder filesExcluded = new LongAdder();
+    private PathFilter filter;
+    private volatile boolean closed;
+    private volatile long startNanos;
+    private volatile long doneNanos;
+
+    DirectoryWalker(SearchOptions options, BlockingQueue<Path> queue) {
+        this.options = options;
+        this.queue = queue;
+        this.pool = new ForkJoinPool(Math.max(1, options.parallelism));
+    }
+
+    void start(Path root) {
+        startNanos = System.nanoTime();
+        filter = new PathFilter(options, root);
+        pool.execute(() -> {
+            try {
+                new WalkTask(root, fileKey(root), null, filter.above(root)).invoke();
+            } catch (CancellationException e) {
+                // close() cancelled the subdirectory tasks still queued
+            } finally {
+                doneNanos = System.nanoTime();
+                try {
+                    queue.put(END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    long filesFound() {
+        return filesFound.sum();
+    }
+
+    // Files left out by the filters; files under pruned folders are not counted
+    long filesExcluded() {
+        return filesExcluded.sum();
+    }
+
+    // Time spent walking the tree, so far if the walk is still running
+    long discoveryNanos() {
+        long done = doneNanos;
+        return (done == 0 ? System.nanoTime() : done) - startNanos;
+    }
+
+    // Warnings are raised on walker threads but reported on the caller's thread
+    void drainWarnings(SearchListener listener) {
+        String message;
+        while ((message = warnings.poll()) != null) {
+            listener.onWarning(message);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        pool.shutdownNow();
+    }
+
+    private void put(Path file) {
+        try {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                private boolean done;
+
+                @Override
+                public boolean block() throws InterruptedException {
+                    if (!done) {
+                        queue.put(file);
+                        done = true;
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return done || (done = queue.offer(file));
+                }
+            });
+            filesFound.increment();
+        } catch (InterruptedException e) {
+            closed = true;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Object fileKey(Path dir) {
+        try {
+            return Files.readAttributes(dir, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            // Reported when the walk cannot open it
+            return null;
+        }
+    }
+
+    // Never serialized; RecursiveAction is Serializable only by inheritance
+    private final class WalkTask extends RecursiveAction {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path dir;
+        // Identifies dir on disk, however it was reached; null when the file
+        // system has no such key
+        private final transient Object key;
+        private final transient WalkTask parent;
+        // Ignore rules of the folder above dir
+        private final transient PathFilter.Rules parentRules;
+
+        WalkTask(Path dir, Object key, WalkTask parent, PathFilter.Rules parentRules) {
+            this.dir = dir;
+            this.key = key;
+            this.parent = parent;
+            this.parentRules = parentRules;
+        }
+
+        // Whether a link has led back to this folder or one above it
+        private boolean isAncestor(Object key) {
+            for (WalkTask t = this; t != null; t = t.parent) {
+                if (key.equals(t.key)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected void compute() {
+            List<WalkTask> subdirs = new ArrayList<>();
+            PathFilter.Rules rules = filter.enter(dir, parentRules);
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    if (closed) break;
+                    String name = entry.getFileName().toString();
+                    if (!options.checkHidden && name.startsWith(".")) continue;
+
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        // A dangling link or a file removed meanwhile; the scanner reports it
+                        put(entry);
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        // Links are followed, but not round a loop
+                        Object key = attrs.fileKey();
+                        if (key != null && isAncestor(key)) continue;
+                        if (options.recursive && filter.acceptsDir(entry, rules)) {
+                            WalkTask task = new WalkTask(entry, key, this, rules);
+                            task.fork();
+                            subdirs.add(task);
+                        }
+                    } else if (filter.acceptsFile(entry, attrs.size(), rules)) {
+                        put(entry);
+                    } else {
+                        filesExcluded.increment();
+                    }
+                }
+            } catch (IOException e) {
+                warnings.add("Cannot open directory: " + dir);
+            }
+            for (WalkTask task : subdirs) {
+                task.join();
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// One scanned file. Only files slower than the threshold are recorded by default,
+// so a search over many small files doesn't flood the recording.
+@Name("org.example.FileScan")
+@Label("File Scan")
+@Category({"PERG", "Search"})
+@Description("One file read and matched by the search engine")
+@StackTrace(false)
+@Threshold("10 ms")
+final class FileScanEvent extends jdk.jfr.Event {
+
+    @Label("Path")
+    String path;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Lines")
+    long lines;
+
+    @Label("Matches")
+    long matches;
+}
@@ -0,0 +1,571 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+// Scans one file through memory-mapped regions that always end on a line boundary.
+// The first bytes of the file decide how it is read (see ContentSniffer): binary
+// files are skipped or only checked for a match, and text is decoded in its own
+// charset.
+//
+// Given a pool, files that splits() are cut into newline-aligned chunks that are
+// scanned in parallel and reported in file order (see scanChunks).
+final class FileScanner {
+
+    static final int WINDOW = 64 << 20;
+    // Files of at least SPLIT bytes are split into chunks of MIN_CHUNK to CHUNK
+    // bytes, about four per worker, so every worker gets a share and the last
+    // chunk to finish is short
+    static final int SPLIT = 8 << 20;
+    static final int MIN_CHUNK = 1 << 20;
+    static final int CHUNK = 4 << 20;
+    // Read at a time from a stream (see scanStream)
+    static final int STREAM_WINDOW = 1 << 20;
+    // A chunk reads at most this far past its end for -A context
+    private static final int TAIL = 64 << 10;
+    private static final int MAX_WINDOW = Integer.MAX_VALUE - 8;
+    private static final int STOP_CHECK = 1024;
+    // One line in MATCH_SAMPLE has its matcher call timed
+    private static final int MATCH_SAMPLE = 32;
+
+    private final SearchOptions options;
+    private final LineMatcher matcher;
+    private final ByteSearcher searcher;
+    // null to scan every file on the calling thread
+    private final ExecutorService chunkPool;
+    private byte[] lineBytes = new byte[8192];
+
+    FileScanner(SearchOptions options, LineMatcher matcher) {
+        this(options, matcher, null);
+    }
+
+    FileScanner(SearchOptions options, LineMatcher matcher, ExecutorService chunkPool) {
+        this.options = options;
+        this.matcher = matcher;
+        // Inverted searches print the non-matching lines, so every line is needed
+        this.searcher = matcher instanceof ByteSearcher b && !options.invert ? b : null;
+        this.chunkPool = chunkPool;
+    }
+
+    void scan(Path file, SearchListener listener, SearchStats stats) throws IOException {
+        scan(file, listener, stats, () -> false);
+    }
+
+    // Returns false when stop cut the scan short. stop is checked after every hit
+    // and every STOP_CHECK lines, once any -A context is done.
+    //
+    // Each window is loaded into memory before it is scanned, so readNanos is the
+    // I/O and scanNanos is only decoding and matching.
+    boolean scan(Path file, SearchListener listener, SearchStats stats, BooleanSupplier stop) throws IOException {
+        FileScanEvent event = new FileScanEvent();
+        event.begin();
+        long t0 = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long t1 = System.nanoTime();
+            stats.openNanos.add(t1 - t0);
+
+            ContentSniffer.Content content = sniff(channel, size);
+            if (content.binary()) {
+                if (options.binaryFiles == SearchOptions.BinaryFiles.SKIP) {
+                    stats.filesBinary.increment();
+                    return true;
+                }
+                if (options.binaryFiles == SearchOptions.BinaryFiles.TEXT) {
+                    content = new ContentSniffer.Content(false, StandardCharsets.UTF_8, 0);
+                }
+            }
+
+            Chunk result;
+            // UTF-16 lines cannot be found by looking for a '\n' byte
+            if (chunkPool != null && splits(size, options.parallelism) && !content.utf16() && !content.binary()) {
+                result = scanChunks(file, channel, size, content, listener, stats, stop);
+            } else {
+                LineState state = new LineState(file, listener, stats, stop, content);
+                long pos = scanRange(channel, content.bomLength(), size, size, state);
+                state.finish();
+                result = new Chunk(null, state.lineNumber, state.matches, Math.min(pos, size), !state.stopped);
+            }
+            stats.filesScanned.increment();
+            stats.bytesRead.add(result.bytes);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.path = file.toString();
+                event.bytes = result.bytes;
+                event.lines = result.lines;
+                event.matches = result.matches;
+                event.commit();
+            }
+            return result.complete;
+        }
+    }
+
+    // Scans a stream as if it were the file named file, such as a file inside an
+    // archive (see Archives), which can be neither mapped nor split. The stream is
+    // read into a buffer whose lines are scanned as a window once it ends on a line
+    // boundary, and which grows when a single line is longer than it, so lines and
+    // offsets come out as scan() would give them for the file itself.
+    boolean scanStream(Path file, InputStream in, SearchListener listener, SearchStats stats,
+                       BooleanSupplier stop) throws IOException {
+        FileScanEvent event = new FileScanEvent();
+        event.begin();
+        long t1 = System.nanoTime();
+        byte[] bytes = new byte[STREAM_WINDOW];
+        int n = in.readNBytes(bytes, 0, bytes.length);
+        boolean eof = n < bytes.length;
+        int sample = Math.min(n, ContentSniffer.SAMPLE);
+        ContentSniffer.Content content = ContentSniffer.sniff(ByteBuffer.wrap(bytes), sample, sample < n || !eof, options.encoding);
+        if (content.binary()) {
+            if (options.binaryFiles == SearchOptions.BinaryFiles.SKIP) {
+                stats.filesBinary.increment();
+                return true;
+            }
+            if (options.binaryFiles == SearchOptions.BinaryFiles.TEXT) {
+                content = new ContentSniffer.Content(false, StandardCharsets.UTF_8, 0);
+            }
+        }
+
+        LineState state = new LineState(file, listener, stats, stop, content);
+        // Stream offset of bytes[0]; bytes[start, n) are still to be scanned
+        long base = 0;
+        int start = content.bomLength();
+        while (true) {
+            ByteBuffer window = ByteBuffer.wrap(bytes, start, n - start).slice();
+            int len = window.limit();
+            int cut = eof ? len : content.utf16() ? lastCharNewline(window, len, content.charset()) + 1
+                : lastIndexOf(window, 0, len, (byte) '\n') + 1;
+            if (cut == 0 && n == bytes.length && bytes.length >= MAX_WINDOW) cut = len;
+            long t2 = System.nanoTime();
+            stats.readNanos.add(t2 - t1);
+            if (cut > 0) scanLines(window.limit(cut), base + start, state);
+            t1 = System.nanoTime();
+            stats.scanNanos.add(t1 - t2);
+            if (eof || state.done()) break;
+
+            // The partial line after cut moves to the front, and the buffer grows
+            // when it is full of it
+            int keep = len - cut;
+            System.arraycopy(bytes, start + cut, bytes, 0, keep);
+            base += start + cut;
+            start = 0;
+            if (keep == bytes.length) bytes = Arrays.copyOf(bytes, (int) Math.min(2L * bytes.length, MAX_WINDOW));
+            int read = in.readNBytes(bytes, keep, bytes.length - keep);
+            n = keep + read;
+            eof = n < bytes.length;
+        }
+        state.finish();
+        long size = base + n;
+        stats.filesScanned.increment();
+        stats.bytesRead.add(size);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = file.toString();
+            event.bytes = size;
+            event.lines = state.lineNumber;
+            event.matches = state.matches;
+            event.commit();
+        }
+        return !state.stopped;
+    }
+
+    // Scans the lines in [from, to) and returns where it stopped. The windows may
+    // run on to the end of the line that crosses end.
+    private long scanRange(FileChannel channel, long from, long to, long end, LineState state) throws IOException {
+        long pos = from;
+        long t1 = System.nanoTime();
+        while (pos < to && !state.done()) {
+            MappedByteBuffer window = mapWindow(channel, pos, end, Math.min(WINDOW, to - pos), state.content).load();
+            long t2 = System.nanoTime();
+            state.stats.readNanos.add(t2 - t1);
+            scanLines(window, pos, state);
+            t1 = System.nanoTime();
+            state.stats.scanNanos.add(t1 - t2);
+            pos += window.limit();
+        }
+        return pos;
+    }
+
+    // Whether a file of size bytes is worth scanning in chunks by workers threads
+    static boolean splits(long size, int workers) {
+        return workers > 1 && size >= SPLIT;
+    }
+
+    static long chunkSize(long size, int workers) {
+        return Math.max(MIN_CHUNK, Math.min(CHUNK, size / (4L * Math.max(1, workers))));
+    }
+
+    // One chunk's share of a file: its events, with line numbers counted from the
+    // start of the chunk, and the number of lines it ends with. events is null for
+    // a whole file scanned on the calling thread.
+    private record Chunk(List<Match> events, long lines, long matches, long bytes, boolean complete) {}
+
+    // Scans chunkSize() pieces of the file on the pool and hands their events to
+    // the listener in file order, from the calling thread. Only a couple more
+    // chunks than threads are in flight, so memory does not grow with the file.
+    //
+    // Each chunk starts just after the first newline at or after its nominal start,
+    // which every chunk works out the same way, so the pieces tile the file
+    // exactly. Line numbers are fixed up as chunks are released; -A context that
+    // runs past a chunk's end is read by that chunk (see LineState.tail).
+    private Chunk scanChunks(Path file, FileChannel channel, long size, ContentSniffer.Content content,
+                             SearchListener listener, SearchStats stats, BooleanSupplier stop) throws IOException {
+        long step = chunkSize(size, options.parallelism);
+        long count = (size + step - 1) / step;
+        int ahead = Math.max(1, options.parallelism) + 2;
+        Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+        long submitted = 0;
+        long lines = 0;
+        long matches = 0;
+        long bytes = 0;
+        boolean complete = true;
+        // Once stop is set only the -A group still open goes out, as when the file
+        // is scanned in one piece
+        boolean closing = false;
+        try {
+            while (submitted < count || !inFlight.isEmpty()) {
+                while (submitted < count && inFlight.size() < ahead) {
+                    long index = submitted++;
+                    inFlight.add(chunkPool.submit(() ->
+                        new FileScanner(options, matcher).scanChunk(file, channel, index * step, step, size, content, stats, stop)));
+                }
+                if (inFlight.isEmpty()) break;
+                Chunk chunk = inFlight.poll().get();
+                boolean closed = false;
+                for (Match m : chunk.events) {
+                    if (closing && !options.extra) break;
+                    listener.onMatch(m.lineNumber() < 0 ? m
+                        : new Match(m.file(), lines + m.lineNumber(), m.byteOffset(), m.text(), m.start(), m.end(), m.pattern(), m.kind()));
+                    if (closing && m.kind() == Match.Kind.SEPARATOR) {
+                        closed = true;
+                        break;
+                    }
+                    if (!closing && m.kind() == Match.Kind.MATCH) closing = stop.getAsBoolean();
+                }
+                lines += chunk.lines;
+                matches += chunk.matches;
+                bytes += chunk.bytes;
+                // An open group carries on into the next chunk
+                boolean groupOpen = closing && options.extra && !closed && chunk.complete;
+                if (!groupOpen && (closing || !chunk.complete || stop.getAsBoolean())) {
+                    complete = false;
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            complete = false;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            // The chunks still running share the channel, which must stay open until
+            // they are done; with stop set they return at their next check
+            for (Future<Chunk> future : inFlight) {
+                if (!future.cancel(false)) {
+                    try {
+                        future.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        // Already reporting the first failure, or no longer needed
+                    }
+                }
+            }
+        }
+        return new Chunk(null, lines, matches, bytes, complete);
+    }
+
+    private Chunk scanChunk(Path file, FileChannel channel, long start, long length, long size,
+                            ContentSniffer.Content content, SearchStats stats, BooleanSupplier stop) throws IOException {
+        long from = start == 0 ? content.bomLength() : lineStartAfter(channel, start, size);
+        long to = start + length >= size ? size : lineStartAfter(channel, start + length, size);
+        List<Match> events = new ArrayList<>();
+        LineState state = new LineState(file, events::add, stats, stop, content);
+        scanRange(channel, from, to, to, state);
+        long lines = state.lineNumber;
+        if (to < size && state.inContext() && !state.done()) {
+            state.tail = true;
+            long pos = to;
+            while (pos < size && state.inContext() && !state.done()) {
+                pos = scanRange(channel, pos, Math.min(size, pos + TAIL), size, state);
+            }
+        }
+        state.finish();
+        return new Chunk(events, lines, state.matches, to - from, !state.stopped);
+    }
+
+    // Offset just after the first '\n' at or after pos - 1, or size when there is none
+    private static long lineStartAfter(FileChannel channel, long pos, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        for (long at = pos - 1; at < size; at += buf.limit()) {
+            buf.clear();
+            int n = channel.read(buf, at);
+            if (n <= 0) break;
+            int nl = indexOf(buf, 0, n, (byte) '\n');
+            if (nl >= 0) return at + nl + 1;
+            buf.limit(n);
+        }
+        return size;
+    }
+
+    private ContentSniffer.Content sniff(FileChannel channel, long size) throws IOException {
+        ByteBuffer sample = ByteBuffer.allocate((int) Math.min(size, ContentSniffer.SAMPLE));
+        int read;
+        do {
+            read = channel.read(sample, sample.position());
+        } while (read > 0 && sample.hasRemaining());
+        return ContentSniffer.sniff(sample, sample.position(), sample.position() < size, options.encoding);
+    }
+
+    // Maps [pos, pos + n) where n ends just after the last newline, growing the
+    // window (up to size) when a single line is longer than len
+    private static MappedByteBuffer mapWindow(FileChannel channel, long pos, long size, long len,
+                                              ContentSniffer.Content content) throws IOException {
+        while (true) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+            if (pos + len == size) {
+                return buf;
+            }
+            int cut = content.utf16() ? lastCharNewline(buf, (int) len, content.charset()) : lastIndexOf(buf, 0, (int) len, (byte) '\n');
+            if (cut >= 0) {
+                return buf.limit(cut + 1);
+            }
+            if (len >= MAX_WINDOW) {
+                return buf;
+            }
+            len = Math.min(Math.min(len * 2, MAX_WINDOW), size - pos);
+        }
+    }
+
+    // Index of the last byte of the last UTF-16 '\n' in [0, len), or -1
+    private static int lastCharNewline(ByteBuffer buf, int len, Charset charset) {
+        ByteOrder order = charset.equals(StandardCharsets.UTF_16LE) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        for (int i = (len & ~1) - 2; i >= 0; i -= 2) {
+            if (buf.order(order).getChar(i) == '\n') return i + 1;
+        }
+        return -1;
+    }
+
+    private void scanLines(ByteBuffer buf, long base, LineState state) {
+        if (state.content.utf16()) {
+            scanChars(buf, base, state);
+            return;
+        }
+        // The byte search looks for the UTF-8 encoding of the pattern
+        if (searcher != null && (state.content.charset() == StandardCharsets.UTF_8 || state.content.binary())) {
+            scanHits(buf, base, state);
+            return;
+        }
+        int limit = buf.limit();
+        int start = 0;
+        while (start < limit && !state.done()) {
+            int nl = indexOf(buf, start, limit, (byte) '\n');
+            int end = nl < 0 ? limit : nl;
+            state.line(decode(buf, start, end, state.content.charset()), base + start);
+            start = end + 1;
+        }
+    }
+
+    // UTF-16 text: every char is two bytes, so offsets stay exact
+    private static void scanChars(ByteBuffer buf, long base, LineState state) {
+        ByteOrder order = state.content.charset().equals(StandardCharsets.UTF_16LE) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        CharSequence chars = buf.order(order).asCharBuffer();
+        int limit = chars.length();
+        int start = 0;
+        while (start < limit && !state.done()) {
+            int end = start;
+            while (end < limit && chars.charAt(end) != '\n') end++;
+            int textEnd = end > start && chars.charAt(end - 1) == '\r' ? end - 1 : end;
+            state.line(chars.subSequence(start, textEnd).toString(), base + 2L * start);
+            start = end + 1;
+        }
+    }
+
+    // Jumps from hit to hit with the byte search and only decodes the lines that
+    // contain a hit, plus any -A context after them
+    private void scanHits(ByteBuffer buf, long base, LineState state) {
+        int limit = buf.limit();
+        int pos = 0;
+        while (pos < limit && !state.done()) {
+            if (!state.inContext()) {
+                long t = System.nanoTime();
+                int hit = searcher.indexIn(buf, pos, limit);
+                state.stats.matchNanos.add(System.nanoTime() - t);
+                if (hit < 0) {
+                    state.skipLines(countLines(buf, pos, limit));
+                    return;
+                }
+                int nl = lastIndexOf(buf, pos, hit, (byte) '\n');
+                int lineStart = nl < 0 ? pos : nl + 1;
+                state.skipLines(countLines(buf, pos, lineStart));
+                pos = lineStart;
+            }
+            int nl = indexOf(buf, pos, limit, (byte) '\n');
+            int end = nl < 0 ? limit : nl;
+            state.line(decode(buf, pos, end, state.content.charset()), base + pos);
+            pos = end + 1;
+        }
+    }
+
+    private static long countLines(ByteBuffer buf, int from, int to) {
+        long lines = 0;
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == '\n') lines++;
+        }
+        if (to > from && buf.get(to - 1) != '\n') lines++;
+        return lines;
+    }
+
+    private String decode(ByteBuffer buf, int start, int end, Charset charset) {
+        if (end > start && buf.get(end - 1) == '\r') end--;
+        int len = end - start;
+        if (len > lineBytes.length) {
+            lineBytes = new byte[Math.max(len, lineBytes.length * 2)];
+        }
+        buf.get(start, lineBytes, 0, len);
+        return new String(lineBytes, 0, len, charset);
+    }
+
+    static int indexOf(ByteBuffer buf, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == b) return i;
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(ByteBuffer buf, int from, int to, byte b) {
+        for (int i = to - 1; i >= from; i--) {
+            if (buf.get(i) == b) return i;
+        }
+        return -1;
+    }
+
+    // Per-file line numbering and -A bookkeeping, carried across windows
+    private final class LineState {
+
+        private final Path file;
+        private final SearchListener listener;
+        private final SearchStats stats;
+        private final BooleanSupplier stop;
+        private final ContentSniffer.Content content;
+        private boolean stopped;
+        // Reading past the chunk's end only for -A context; the next chunk's own
+        // lines and matches are its business
+        private boolean tail;
+        // A binary file is done after its first match
+        private boolean finished;
+        private long lineNumber;
+        private long matches;
+        private int contextLeft;
+        private boolean inGroup;
+
+        LineState(Path file, SearchListener listener, SearchStats stats, BooleanSupplier stop, ContentSniffer.Content content) {
+            this.file = file;
+            this.listener = listener;
+            this.stats = stats;
+            this.stop = stop;
+            this.content = content;
+        }
+
+        boolean done() {
+            return stopped || finished || (tail && contextLeft == 0);
+        }
+
+        void line(String text, long offset) {
+            lineNumber++;
+            if (tail) {
+                tailLine(text, offset);
+                return;
+            }
+            stats.linesScanned.increment();
+            LineMatcher.Hit hit;
+            if (lineNumber % MATCH_SAMPLE == 0) {
+                long t = System.nanoTime();
+                hit = matcher.find(text);
+                stats.matchNanos.add((System.nanoTime() - t) * MATCH_SAMPLE);
+            } else {
+                hit = matcher.find(text);
+            }
+            boolean matched = (hit != null) != options.invert;
+            boolean reported = matched || contextLeft > 0;
+
+            if (matched && content.binary()) {
+                // Binary lines are not printed, only that the file matches
+                matches++;
+                stats.matchedLines.increment();
+                listener.onMatch(Match.binary(file));
+                finished = true;
+            } else if (matched) {
+                matches++;
+                stats.matchedLines.increment();
+                int start = hit == null ? -1 : hit.start();
+                int end = hit == null ? -1 : hit.end();
+                String pattern = hit == null ? null : matcher.patternOf(hit);
+                listener.onMatch(new Match(file, lineNumber, offset, text, start, end, pattern, Match.Kind.MATCH));
+
+                if (options.extra && hit != null) {
+                    contextLeft = options.numExtra;
+                    inGroup = true;
+                    if (contextLeft == 0) closeGroup();
+                }
+            } else if (contextLeft > 0) {
+                listener.onMatch(new Match(file, lineNumber, offset, text, -1, -1, null, Match.Kind.CONTEXT));
+                if (--contextLeft == 0) closeGroup();
+            }
+
+            // The context after the last reported match is still printed
+            if (contextLeft == 0 && (reported || lineNumber % STOP_CHECK == 0)) {
+                stopped = stop.getAsBoolean();
+            }
+        }
+
+        // A match here is the next chunk's first match, which carries the group on,
+        // so the group is left open
+        private void tailLine(String text, long offset) {
+            if ((matcher.find(text) != null) != options.invert) {
+                inGroup = false;
+                contextLeft = 0;
+                return;
+            }
+            listener.onMatch(new Match(file, lineNumber, offset, text, -1, -1, null, Match.Kind.CONTEXT));
+            if (--contextLeft == 0) closeGroup();
+        }
+
+        boolean inContext() {
+            return contextLeft > 0;
+        }
+
+        void skipLines(long count) {
+            lineNumber += count;
+            stats.linesScanned.add(count);
+        }
+
+        void finish() {
+            if (inGroup) closeGroup();
+        }
+
+        private void closeGroup() {
+            listener.onMatch(Match.separator(file));
+            inGroup = false;
+        }
+    }
+}
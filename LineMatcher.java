@@ -0,0 +1,119 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+interface LineMatcher {
+
+    // pattern is the index of the pattern that hit in multi-pattern mode, else -1
+    record Hit(int start, int end, int pattern) {
+
+        Hit(int start, int end) {
+            this(start, end, -1);
+        }
+    }
+
+    // Returns the first hit in the line, or null when the line does not match
+    Hit find(CharSequence line);
+
+    // The pattern to tag a hit with, or null when there is only one pattern
+    default String patternOf(Hit hit) {
+        return null;
+    }
+
+    static LineMatcher compile(SearchOptions options) {
+        if (options.patterns != null) {
+            return new AhoCorasickMatcher(options.patterns, options.caseSensitive);
+        }
+        if (options.nativeEngine) {
+            return NativeMatcher.compile(options.term, options.caseSensitive, options.parallelism);
+        }
+        return compile(options.term, options.caseSensitive);
+    }
+
+    // A regex runs only on the lines that can match it: those holding one of its
+    // required literals, which are searched for in the raw bytes first, or else
+    // those its RegexAutomaton accepts
+    static LineMatcher compile(String term, boolean caseSensitive) {
+        if (LiteralMatcher.isLiteral(term, caseSensitive)) {
+            return new LiteralMatcher(term, caseSensitive);
+        }
+        RegexMatcher regex = new RegexMatcher(term, caseSensitive);
+        List<String> literals = RegexAnalyzer.prefilter(term, caseSensitive);
+        if (literals.size() == 1) {
+            return new PrefilteredMatcher(new LiteralMatcher(literals.get(0), caseSensitive), regex);
+        }
+        if (!literals.isEmpty()) {
+            return new PrefilteredMatcher(new AhoCorasickMatcher(literals, caseSensitive), regex);
+        }
+        RegexAutomaton automaton = RegexAutomaton.compile(term, caseSensitive);
+        return automaton == null ? regex : new AutomatonMatcher(automaton, regex);
+    }
+
+    final class RegexMatcher implements LineMatcher {
+
+        private final Pattern pattern;
+        private final ThreadLocal<Matcher> matchers;
+
+        RegexMatcher(String term, boolean caseSensitive) {
+            try {
+                pattern = caseSensitive
+                    ? Pattern.compile(term)
+                    : Pattern.compile(term, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid regular expression: " + term, e);
+            }
+            matchers = ThreadLocal.withInitial(() -> pattern.matcher(""));
+        }
+
+        @Override
+        public Hit find(CharSequence line) {
+            Matcher m = matchers.get().reset(line);
+            return m.find() ? new Hit(m.start(), m.end()) : null;
+        }
+    }
+
+    // The regex behind a byte search for the literals every match contains
+    final class PrefilteredMatcher implements LineMatcher, ByteSearcher {
+
+        private final LineMatcher literals;
+        private final ByteSearcher bytes;
+        private final RegexMatcher regex;
+
+        <T extends LineMatcher & ByteSearcher> PrefilteredMatcher(T literals, RegexMatcher regex) {
+            this.literals = literals;
+            this.bytes = literals;
+            this.regex = regex;
+        }
+
+        @Override
+        public Hit find(CharSequence line) {
+            return literals.find(line) == null ? null : regex.find(line);
+        }
+
+        @Override
+        public int indexIn(ByteBuffer buf, int from, int to) {
+            return bytes.indexIn(buf, from, to);
+        }
+    }
+
+    // The regex behind a linear-time check that the line can match at all
+    final class AutomatonMatcher implements LineMatcher {
+
+        private final RegexAutomaton automaton;
+        private final RegexMatcher regex;
+
+        AutomatonMatcher(RegexAutomaton automaton, RegexMatcher regex) {
+            this.automaton = automaton;
+            this.regex = regex;
+        }
+
+        @Override
+        public Hit find(CharSequence line) {
+            return automaton.mayMatch(line) ? regex.find(line) : null;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Plain-word patterns skip the regex engine. Besides matching decoded lines, this
+// searches raw file bytes with Boyer-Moore-Horspool, so FileScanner only has to
+// find line boundaries around the hits. Only ASCII terms ignore case, and they
+// match as Pattern's CASE_INSENSITIVE | UNICODE_CASE would: besides ASCII
+// folding, dotted and dotless I, long s and the Kelvin sign stand for i, s and k.
+final class LiteralMatcher implements LineMatcher, ByteSearcher {
+
+    private static final String REGEX_META = "\\^$.|?*+()[]{}";
+
+    private final String literal;
+    private final boolean caseSensitive;
+    private final byte[] needle;
+    private final int[] shift = new int[256];
+    // Ignoring case with an i, k or s in the term, whose non-ASCII forms the
+    // byte search also stops at, for find() to check
+    private final boolean foreignForms;
+
+    LiteralMatcher(String literal, boolean caseSensitive) {
+        this.literal = literal;
+        this.caseSensitive = caseSensitive;
+        this.needle = literal.getBytes(StandardCharsets.UTF_8);
+        this.foreignForms = !caseSensitive && literal.chars().anyMatch(c -> "iksIKS".indexOf(c) >= 0);
+        if (!caseSensitive) {
+            for (int i = 0; i < needle.length; i++) {
+                needle[i] = fold(needle[i]);
+            }
+        }
+
+        int last = needle.length - 1;
+        Arrays.fill(shift, needle.length);
+        for (int i = 0; i < last; i++) {
+            shift[needle[i] & 0xff] = last - i;
+        }
+    }
+
+    // True when the term has no regex syntax, and is ASCII when case is ignored
+    static boolean isLiteral(String term, boolean caseSensitive) {
+        if (term.isEmpty()) return false;
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            if (REGEX_META.indexOf(c) >= 0) return false;
+            if (!caseSensitive && c > 0x7f) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Hit find(CharSequence line) {
+        String text = line.toString();
+        int at = caseSensitive ? text.indexOf(literal) : foreignForms ? indexOfUnicodeCase(text) : indexOfIgnoreCase(text);
+        return at < 0 ? null : new Hit(at, at + literal.length());
+    }
+
+    @Override
+    public int indexIn(ByteBuffer buf, int from, int to) {
+        int hit = indexOfNeedle(buf, from, to);
+        return foreignForms ? indexOfForeignForm(buf, from, hit < 0 ? to : hit, hit) : hit;
+    }
+
+    private int indexOfNeedle(ByteBuffer buf, int from, int to) {
+        int last = needle.length - 1;
+        int i = from;
+        while (i + last < to) {
+            byte b = byteAt(buf, i + last);
+            if (b == needle[last]) {
+                int j = last - 1;
+                while (j >= 0 && byteAt(buf, i + j) == needle[j]) j--;
+                if (j < 0) return i;
+            }
+            i += shift[b & 0xff];
+        }
+        return -1;
+    }
+
+    // The first dotted I, dotless i, long s or Kelvin sign in [from, to), in
+    // UTF-8, or else orElse
+    static int indexOfForeignForm(ByteBuffer buf, int from, int to, int orElse) {
+        for (int i = from; i < to; i++) {
+            int b = buf.get(i) & 0xff;
+            if (b != 0xc4 && b != 0xc5 && b != 0xe2 || i + 1 >= to) continue;
+            int next = buf.get(i + 1) & 0xff;
+            if (b == 0xc4 && (next == 0xb0 || next == 0xb1) || b == 0xc5 && next == 0xbf
+                    || b == 0xe2 && next == 0x84 && i + 2 < to && (buf.get(i + 2) & 0xff) == 0xaa) {
+                return i;
+            }
+        }
+        return orElse;
+    }
+
+    private byte byteAt(ByteBuffer buf, int index) {
+        byte b = buf.get(index);
+        return caseSensitive ? b : fold(b);
+    }
+
+    private int indexOfIgnoreCase(String text) {
+        int n = literal.length();
+        outer:
+        for (int i = 0; i + n <= text.length(); i++) {
+            for (int j = 0; j < n; j++) {
+                if (fold(text.charAt(i + j)) != fold(literal.charAt(j))) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    // regionMatches folds the way Pattern does with UNICODE_CASE, which is what
+    // brings in the non-ASCII forms of i, k and s
+    private int indexOfUnicodeCase(String text) {
+        int n = literal.length();
+        for (int i = 0; i + n <= text.length(); i++) {
+            if (text.regionMatches(true, i, literal, 0, n)) return i;
+        }
+        return -1;
+    }
+
+    private static byte fold(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+    }
+
+    private static char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+    }
+}
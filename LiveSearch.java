@@ -0,0 +1,159 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Search-as-you-type over one folder or list of files. Each query that runs to
+// the end is remembered, and a query whose literal only extends the last one
+// (err, erro, error) cannot match anything the last one did not, so it reads
+// only that: the matching lines themselves when there were few enough to keep,
+// else just the files that matched.
+//
+// Narrowing trusts that the files have not changed since the query it builds
+// on; reset() forgets that query.
+final class LiveSearch {
+
+    // Matched lines kept for narrowing, in chars of text; past it only the files
+    // that matched are kept
+    static final long KEEP_CHARS = 16 << 20;
+
+    // What a query found, with everything that decides what the next one may read
+    private record Found(Path dir, List<Path> files, SearchOptions options, List<Path> matchedFiles,
+                         List<Match> matchedLines) {}
+
+    // How much a query read: everything, or what the one before found
+    enum Scope { ALL, FILES, LINES }
+
+    record Outcome(SearchStats stats, Scope scope) {}
+
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Runnable running;
+    private Found last;
+
+    // The ticket for search(); queries with an older one are skipped
+    long ticket() {
+        return generation.get();
+    }
+
+    // Callable from any thread: stops the running query and any that has not
+    // started yet
+    void cancel() {
+        generation.incrementAndGet();
+        Runnable stop = running;
+        if (stop != null) stop.run();
+    }
+
+    synchronized void reset() {
+        last = null;
+    }
+
+    // Searches files, or dir when there are none, and returns null when the ticket
+    // was cancelled first. Queries run one at a time; listener gets the matches
+    // the way SearchEngine.searchDirectory reports them.
+    synchronized Outcome search(long ticket, SearchOptions options, Path dir, List<Path> files,
+                                SearchListener listener) throws IOException, InterruptedException {
+        if (ticket != generation.get()) return null;
+        Found base = last != null && narrows(last, options, dir, files) ? last : null;
+        Collector collector = new Collector(listener, keepsLines(options));
+        SearchStats stats;
+        Scope scope;
+        DaemonClient daemon = base == null ? DaemonClient.connect() : null;
+        if (daemon != null) {
+            // A running daemon has warm caches for the full search
+            running = daemon::cancel;
+            if (ticket != generation.get()) return null;
+            stats = daemon.search(options, dir, files, collector);
+            scope = Scope.ALL;
+        } else {
+            SearchEngine engine = new SearchEngine(options);
+            running = engine::cancel;
+            if (ticket != generation.get()) return null;
+            if (base != null && base.matchedLines != null) {
+                stats = engine.searchLines(base.matchedLines, collector);
+                scope = Scope.LINES;
+            } else if (base != null) {
+                stats = engine.searchFiles(base.matchedFiles, collector);
+                scope = Scope.FILES;
+            } else {
+                stats = files.isEmpty() ? engine.searchDirectory(dir, collector) : engine.searchFiles(files, collector);
+                scope = Scope.ALL;
+            }
+        }
+        running = null;
+        // A query cut short says nothing about what the next one may skip
+        if (stats.stopReason == null) {
+            last = new Found(dir, List.copyOf(files), options, new ArrayList<>(collector.files), collector.lines);
+        }
+        return new Outcome(stats, scope);
+    }
+
+    // Whether every match of options is among what found found: the same search
+    // but for a literal that contains the last one
+    private static boolean narrows(Found found, SearchOptions options, Path dir, List<Path> files) {
+        SearchOptions before = found.options;
+        if (!found.dir.equals(dir) || !found.files.equals(files)) return false;
+        if (options.patterns != null || before.patterns != null || options.invert) return false;
+        // Same options apart from the term, which toArgs() puts last
+        List<String> now = options.toArgs();
+        List<String> then = before.toArgs();
+        if (!now.subList(0, now.size() - 1).equals(then.subList(0, then.size() - 1))) return false;
+        if (!LiteralMatcher.isLiteral(options.term, options.caseSensitive)
+                || !LiteralMatcher.isLiteral(before.term, before.caseSensitive)) {
+            return false;
+        }
+        // Case-insensitive literals are ASCII, so lower-casing compares them the
+        // way LiteralMatcher does
+        return options.caseSensitive
+            ? options.term.contains(before.term)
+            : options.term.toLowerCase(Locale.ROOT).contains(before.term.toLowerCase(Locale.ROOT));
+    }
+
+    // Whether the matching lines, on their own, are all the next query needs:
+    // not when it also prints context, and not when some lines were left out
+    private static boolean keepsLines(SearchOptions options) {
+        return !options.extra && !options.filesWithMatches && options.maxPerFile == 0 && !options.invert;
+    }
+
+    // Passes matches on and keeps the files, and lines, they were found in
+    private static final class Collector implements SearchListener {
+
+        private final SearchListener listener;
+        private final Set<Path> files = new LinkedHashSet<>();
+        // null once narrowing by line is out
+        private List<Match> lines;
+        private long chars;
+
+        Collector(SearchListener listener, boolean keepLines) {
+            this.listener = listener;
+            this.lines = keepLines ? new ArrayList<>() : null;
+        }
+
+        @Override
+        public void onMatch(Match match) {
+            listener.onMatch(match);
+            if (match.kind() == Match.Kind.CONTEXT || match.kind() == Match.Kind.SEPARATOR) return;
+            // A file inside an archive can only be read again through the archive
+            Path archive = Archives.archiveOf(match.file());
+            files.add(archive != null ? archive : match.file());
+            if (lines == null) return;
+            // A binary file reports no lines to match again
+            chars += match.text().length();
+            if (match.kind() != Match.Kind.MATCH || chars > KEEP_CHARS) {
+                lines = null;
+            } else {
+                lines.add(match);
+            }
+        }
+
+        @Override
+        public void onWarning(String message) {
+            listener.onWarning(message);
+        }
+    }
+}
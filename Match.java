@@ -0,0 +1,31 @@
+package org.example;
+
+import java.nio.file.Path;
+
+// pattern names the pattern that hit in multi-pattern mode, otherwise it is null
+record Match(Path file, long lineNumber, long byteOffset, String text, int start, int end, String pattern, Kind kind) {
+
+    // FILE reports only the file name, for -l; BINARY that a binary file matches
+    enum Kind { MATCH, CONTEXT, SEPARATOR, FILE, BINARY }
+
+    static Match separator(Path file) {
+        return new Match(file, -1, -1, "--", -1, -1, null, Kind.SEPARATOR);
+    }
+
+    static Match fileName(Path file) {
+        return new Match(file, -1, -1, file.toString(), -1, -1, null, Kind.FILE);
+    }
+
+    static Match binary(Path file) {
+        return new Match(file, -1, -1, "Binary file " + file + " matches", -1, -1, null, Kind.BINARY);
+    }
+
+    // Same layout perg.exe used to print
+    String format(boolean verbose) {
+        String line = pattern == null ? text : "[" + pattern + "] " + text;
+        if (kind == Kind.SEPARATOR || kind == Kind.FILE || kind == Kind.BINARY || !verbose) {
+            return line;
+        }
+        return file + ": " + line;
+    }
+}
@@ -0,0 +1,210 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Result rows for the GUI, kept out of the heap. A match is stored as a fixed
+// ROW-byte record (file id, line number, byte offset, line length, match span,
+// pattern id, kind) in a memory-mapped temp file, so the operating system pages
+// it in and out and the heap does not grow with the number of matches. The line
+// itself is read back from the searched file only when text() asks for it.
+//
+// Files and patterns are kept once each on the heap, as are plain text rows
+// (headers, warnings, statistics), which are few, and the lines of files inside
+// archives (see Archives), which cannot be read back.
+final class MatchStore implements AutoCloseable {
+
+    static final int ROW = 40;
+    private static final int ROWS_PER_SEGMENT = (16 << 20) / ROW;
+    // Longer lines are cut when shown
+    static final int MAX_SHOWN = 64 << 10;
+    private static final int OPEN_FILES = 16;
+    // Kind byte of a plain text row; match rows use Match.Kind ordinals
+    private static final byte TEXT = (byte) 0xff;
+
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final List<Path> files = new ArrayList<>();
+    private final Map<Path, Integer> fileIds = new HashMap<>();
+    private final List<String> patterns = new ArrayList<>();
+    private final Map<String, Integer> patternIds = new HashMap<>();
+    private final List<String> texts = new ArrayList<>();
+    // Ids of the files inside archives
+    private final Set<Integer> entries = new HashSet<>();
+    private volatile int size;
+    // null to detect each file's charset again, as the search did
+    private volatile Charset encoding;
+    private final Map<Integer, Charset> charsets = new HashMap<>();
+    private final LinkedHashMap<Integer, FileChannel> open = new LinkedHashMap<>(16, 0.75f, true);
+
+    MatchStore() throws IOException {
+        Path file = Files.createTempFile("perg-results", ".rows");
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    int size() {
+        return size;
+    }
+
+    // --encoding of the search, so lines are decoded the way they were matched
+    void setEncoding(Charset encoding) {
+        this.encoding = encoding;
+    }
+
+    synchronized void addText(String text) throws IOException {
+        ByteBuffer row = next();
+        int at = row.position();
+        row.putInt(at + 16, texts.size());
+        row.put(at + 36, TEXT);
+        texts.add(text);
+        size++;
+    }
+
+    synchronized void addMatch(Match match, boolean verbose) throws IOException {
+        ByteBuffer row = next();
+        int at = row.position();
+        int fileId = fileIds.computeIfAbsent(match.file(), f -> {
+            if (Archives.isEntry(f)) entries.add(files.size());
+            files.add(f);
+            return files.size() - 1;
+        });
+        // A line inside an archive is kept, shortened as it would be shown, and
+        // its row holds the text's id where the offset would be
+        boolean kept = entries.contains(fileId) && match.lineNumber() >= 0;
+        if (kept) {
+            String text = match.text();
+            texts.add(text.length() > MAX_SHOWN ? text.substring(0, MAX_SHOWN) + " ..." : text);
+        }
+        row.putLong(at, kept ? texts.size() - 1 : match.byteOffset());
+        row.putLong(at + 8, match.lineNumber());
+        row.putInt(at + 16, fileId);
+        row.putInt(at + 20, match.text().length());
+        row.putInt(at + 24, match.start());
+        row.putInt(at + 28, match.end());
+        row.putInt(at + 32, match.pattern() == null ? -1 : patternIds.computeIfAbsent(match.pattern(), p -> {
+            patterns.add(p);
+            return patterns.size() - 1;
+        }));
+        row.put(at + 36, (byte) match.kind().ordinal());
+        row.put(at + 37, (byte) (verbose ? 1 : 0));
+        size++;
+    }
+
+    // The row as the result list shows it; lines are read from their file, or
+    // kept ones looked up
+    synchronized String text(int index) {
+        ByteBuffer segment = segments.get(index / ROWS_PER_SEGMENT);
+        int at = (index % ROWS_PER_SEGMENT) * ROW;
+        byte kind = segment.get(at + 36);
+        int id = segment.getInt(at + 16);
+        if (kind == TEXT) return texts.get(id);
+
+        Match.Kind matchKind = Match.Kind.values()[kind];
+        Path file = files.get(id);
+        boolean verbose = segment.get(at + 37) != 0;
+        Match match = switch (matchKind) {
+            case SEPARATOR -> Match.separator(file);
+            case FILE -> Match.fileName(file);
+            case BINARY -> Match.binary(file);
+            default -> {
+                long offset = segment.getLong(at);
+                int patternId = segment.getInt(at + 32);
+                String line = entries.contains(id) ? texts.get((int) offset) : readLine(id, offset, segment.getInt(at + 20));
+                yield new Match(file, segment.getLong(at + 8), offset, line,
+                    segment.getInt(at + 24), segment.getInt(at + 28), patternId < 0 ? null : patterns.get(patternId),
+                    matchKind);
+            }
+        };
+        return match.format(verbose);
+    }
+
+    @Override
+    public synchronized void close() {
+        for (FileChannel c : open.values()) closeQuietly(c);
+        open.clear();
+        closeQuietly(channel);
+        segments.clear();
+    }
+
+    // The buffer of the next free row, positioned at it
+    private ByteBuffer next() throws IOException {
+        if (!channel.isOpen()) throw new ClosedChannelException();
+        int segment = size / ROWS_PER_SEGMENT;
+        if (segment == segments.size()) {
+            long base = (long) segment * ROWS_PER_SEGMENT * ROW;
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE, base, (long) ROWS_PER_SEGMENT * ROW));
+        }
+        return segments.get(segment).position((size % ROWS_PER_SEGMENT) * ROW);
+    }
+
+    // chars is the decoded length the search saw, without the line break
+    private String readLine(int fileId, long offset, int chars) {
+        try {
+            FileChannel source = source(fileId);
+            Charset charset = charsets.get(fileId);
+            int shown = Math.min(chars, MAX_SHOWN);
+            // Enough bytes for shown chars in any charset the scanner decodes
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(4L * shown + 4, source.size() - offset));
+            while (buf.hasRemaining() && source.read(buf, offset + buf.position()) > 0) {
+                // Read until full or end of file
+            }
+            String line = new String(buf.array(), 0, buf.position(), charset);
+            int nl = line.indexOf('\n');
+            if (nl >= 0) line = line.substring(0, nl);
+            if (line.endsWith("\r")) line = line.substring(0, line.length() - 1);
+            line = line.substring(0, Math.min(line.length(), shown));
+            return chars > shown ? line + " ..." : line;
+        } catch (IOException | RuntimeException e) {
+            return "(line no longer readable: " + e.getMessage() + ")";
+        }
+    }
+
+    private FileChannel source(int fileId) throws IOException {
+        FileChannel source = open.get(fileId);
+        if (source != null && source.isOpen()) return source;
+        source = FileChannel.open(files.get(fileId), StandardOpenOption.READ);
+        open.put(fileId, source);
+        if (open.size() > OPEN_FILES) {
+            Integer eldest = open.keySet().iterator().next();
+            closeQuietly(open.remove(eldest));
+        }
+        if (!charsets.containsKey(fileId)) charsets.put(fileId, sniff(source));
+        return source;
+    }
+
+    // Same decision FileScanner made when it found the matches; binary files
+    // only get here when searched as text, which reads them as UTF-8
+    private Charset sniff(FileChannel source) throws IOException {
+        long size = source.size();
+        ByteBuffer sample = ByteBuffer.allocate((int) Math.min(size, ContentSniffer.SAMPLE));
+        while (sample.hasRemaining() && source.read(sample, sample.position()) > 0) {
+            // Read the whole sample
+        }
+        ContentSniffer.Content content = ContentSniffer.sniff(sample, sample.position(), sample.position() < size, encoding);
+        return content.binary() ? StandardCharsets.UTF_8 : content.charset();
+    }
+
+    private static void closeQuietly(FileChannel c) {
+        try {
+            c.close();
+        } catch (IOException e) {
+            // Nothing to do about it
+        }
+    }
+}
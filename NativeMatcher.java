@@ -0,0 +1,272 @@
+package org.example;
+
+import java.io.File;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Matches with perg.cpp's OpenMP engine, built as libperg (the nativeLibrary task
+// in build.gradle) and called in process through java.lang.foreign. perg_scan
+// reads the window FileScanner has mapped, in place, and reports the matching
+// lines as byte offsets into it, so no text is copied, printed or parsed on the
+// way. Terms are std::regex ECMAScript patterns, as perg.exe took them.
+//
+// Only the lines the engine reports are decoded, and perg_match then finds the
+// span in each of them.
+final class NativeMatcher implements LineMatcher, ByteSearcher {
+
+    // Hits held per thread before perg_scan is asked to stop; it stops at the end
+    // of a round, so a few more may come in
+    private static final int HITS = 1024;
+
+    private static final FunctionDescriptor ON_LINE = FunctionDescriptor.of(ValueLayout.JAVA_INT,
+        ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG);
+
+    private final Library library;
+    private final MemorySegment pattern;
+    private final int threads;
+    // Callers scanning right now; they share the threads
+    private final AtomicInteger callers = new AtomicInteger();
+    private final ThreadLocal<Scan> scans = ThreadLocal.withInitial(Scan::new);
+
+    private NativeMatcher(Library library, MemorySegment pattern, int threads) {
+        this.library = library;
+        this.pattern = pattern;
+        this.threads = threads;
+    }
+
+    // Bad terms throw IllegalArgumentException, as with the Java matchers, and so
+    // does a missing library
+    static NativeMatcher compile(String term, boolean caseSensitive, int threads) {
+        Library library = Library.get();
+        MemorySegment pattern;
+        try (Arena arena = Arena.ofConfined()) {
+            pattern = (MemorySegment) library.compile.invokeExact(arena.allocateFrom(term), caseSensitive ? 1 : 0);
+        } catch (Throwable e) {
+            throw failure(e);
+        }
+        if (pattern.equals(MemorySegment.NULL)) {
+            throw new IllegalArgumentException("Invalid regular expression: " + term);
+        }
+        // Freed once the matcher is unreachable
+        return new NativeMatcher(library, pattern.reinterpret(Arena.ofAuto(), library::release), threads);
+    }
+
+    @Override
+    public Hit find(CharSequence line) {
+        return scans.get().find(line);
+    }
+
+    @Override
+    public int indexIn(ByteBuffer buf, int from, int to) {
+        return scans.get().indexIn(buf, from, to);
+    }
+
+    private static RuntimeException failure(Throwable e) {
+        if (e instanceof RuntimeException r) return r;
+        if (e instanceof Error error) throw error;
+        return new IllegalStateException(e);
+    }
+
+    // One thread's view of the engine: the hits perg_scan reported for the window
+    // that thread is reading, and native memory for perg_match
+    private final class Scan {
+
+        private final Arena arena = Arena.ofAuto();
+        private final MemorySegment onLine;
+        private final MemorySegment span = arena.allocate(ValueLayout.JAVA_LONG, 2);
+        private MemorySegment scratch = arena.allocate(8192);
+        private WeakReference<ByteBuffer> window = new WeakReference<>(null);
+        private int end;
+        private int lastFrom;
+        // Lines of the window past resume have not been scanned yet
+        private int resume;
+        private long[] hits = new long[HITS];
+        private int count;
+        private int next;
+        // Added to the offsets perg_scan reports, when it read a copy
+        private long shift;
+
+        Scan() {
+            try {
+                MethodHandle target = MethodHandles.lookup().findVirtual(Scan.class, "onLine",
+                    MethodType.methodType(int.class, long.class, long.class, long.class, long.class));
+                onLine = Linker.nativeLinker().upcallStub(target.bindTo(this), ON_LINE, arena);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        // FileScanner asks for the next hit with a from past the line of the last
+        // one, until the window runs out
+        int indexIn(ByteBuffer buf, int from, int to) {
+            if (buf != window.get() || to != end || from < lastFrom) {
+                window = new WeakReference<>(buf);
+                end = to;
+                resume = from;
+                count = 0;
+                next = 0;
+            }
+            lastFrom = from;
+            while (true) {
+                while (next < count && hits[next] < from) next++;
+                if (next < count) return (int) hits[next];
+                if (resume >= end) return -1;
+                count = 0;
+                next = 0;
+                resume = scan(buf, Math.max(resume, from), end);
+            }
+        }
+
+        private int scan(ByteBuffer buf, int from, int to) {
+            MemorySegment data = MemorySegment.ofBuffer(buf.duplicate().position(0).limit(to));
+            shift = 0;
+            if (!data.isNative()) {
+                // Heap bytes have no address to hand over
+                MemorySegment copy = scratch(to - from);
+                MemorySegment.copy(data, from, copy, 0, to - from);
+                data = copy;
+                shift = from;
+                to -= from;
+                from = 0;
+            }
+            int share = Math.max(1, threads / Math.max(1, callers.incrementAndGet()));
+            long resumed;
+            try {
+                resumed = (long) library.scan.invokeExact(pattern, data, (long) from, (long) to, share, onLine);
+            } catch (Throwable e) {
+                throw failure(e);
+            } finally {
+                callers.decrementAndGet();
+            }
+            if (resumed < 0) throw new IllegalStateException("libperg could not match a line against the pattern.");
+            return (int) (resumed + shift);
+        }
+
+        // Called by perg_scan, in file order
+        private int onLine(long lineStart, long lineEnd, long matchStart, long matchEnd) {
+            if (count == hits.length) hits = Arrays.copyOf(hits, count * 2);
+            hits[count++] = lineStart + shift;
+            return count >= HITS ? 1 : 0;
+        }
+
+        Hit find(CharSequence line) {
+            byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+            MemorySegment text = scratch(bytes.length);
+            MemorySegment.copy(bytes, 0, text, ValueLayout.JAVA_BYTE, 0, bytes.length);
+            int found;
+            try {
+                found = (int) library.match.invokeExact(pattern, text, (long) bytes.length,
+                    span, span.asSlice(Long.BYTES));
+            } catch (Throwable e) {
+                throw failure(e);
+            }
+            if (found < 0) throw new IllegalStateException("libperg could not match a line against the pattern.");
+            if (found == 0) return null;
+            long start = span.get(ValueLayout.JAVA_LONG, 0);
+            long end = span.get(ValueLayout.JAVA_LONG, Long.BYTES);
+            return new Hit(chars(bytes, start), chars(bytes, end));
+        }
+
+        private MemorySegment scratch(long size) {
+            if (scratch.byteSize() < size) scratch = arena.allocate(Math.max(size, scratch.byteSize() * 2));
+            return scratch;
+        }
+
+        // The UTF-16 index of a byte offset into UTF-8 text
+        private static int chars(byte[] bytes, long offset) {
+            return new String(bytes, 0, (int) offset, StandardCharsets.UTF_8).length();
+        }
+    }
+
+    // perg.cpp's library API, bound on first use
+    private static final class Library {
+
+        private static Library instance;
+        private static String problem;
+
+        final MethodHandle compile;
+        final MethodHandle free;
+        final MethodHandle match;
+        final MethodHandle scan;
+
+        private Library(SymbolLookup lookup) {
+            Linker linker = Linker.nativeLinker();
+            compile = linker.downcallHandle(symbol(lookup, "perg_compile"),
+                FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_INT));
+            free = linker.downcallHandle(symbol(lookup, "perg_free"),
+                FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
+            match = linker.downcallHandle(symbol(lookup, "perg_match"),
+                FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS,
+                    ValueLayout.JAVA_LONG, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+            scan = linker.downcallHandle(symbol(lookup, "perg_scan"),
+                FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.ADDRESS, ValueLayout.ADDRESS,
+                    ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.ADDRESS));
+        }
+
+        static synchronized Library get() {
+            if (instance == null && problem == null) {
+                try {
+                    instance = new Library(lookup());
+                } catch (IllegalArgumentException | IllegalCallerException e) {
+                    problem = e.getMessage();
+                }
+            }
+            if (instance == null) {
+                throw new IllegalArgumentException("The native engine is not available: " + problem);
+            }
+            return instance;
+        }
+
+        void release(MemorySegment pattern) {
+            try {
+                free.invokeExact(pattern);
+            } catch (Throwable e) {
+                throw failure(e);
+            }
+        }
+
+        // -Dperg.library, else libperg next to the jar this class came from (lib/
+        // of an install), on java.library.path, or wherever the loader looks
+        private static SymbolLookup lookup() {
+            String explicit = System.getProperty("perg.library");
+            if (explicit != null) return SymbolLookup.libraryLookup(Path.of(explicit), Arena.global());
+            String name = System.mapLibraryName("perg");
+            List<Path> dirs = new ArrayList<>();
+            try {
+                Path home = Path.of(NativeMatcher.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+                dirs.add(Files.isDirectory(home) ? home : home.getParent());
+            } catch (URISyntaxException | RuntimeException e) {
+                // No code source to look next to
+            }
+            for (String dir : System.getProperty("java.library.path", "").split(File.pathSeparator)) {
+                if (!dir.isEmpty()) dirs.add(Path.of(dir));
+            }
+            for (Path dir : dirs) {
+                Path library = dir.resolve(name);
+                if (Files.isRegularFile(library)) return SymbolLookup.libraryLookup(library, Arena.global());
+            }
+            return SymbolLookup.libraryLookup(name, Arena.global());
+        }
+
+        private static MemorySegment symbol(SymbolLookup lookup, String name) {
+            return lookup.find(name).orElseThrow(() -> new IllegalArgumentException(name + " is missing from libperg"));
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.example;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
@@ -11,14 +12,28 @@ import javafx.scene.paint.Color;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.util.*;
 
 public class PERG extends Application {
 
     private final TextField patternField = new TextField();
-    private final TextArea resultArea = new TextArea();
+    private final CheckBox multiPatternBox = new CheckBox("Multiple patterns (one per line)");
+    private final TextArea patternListArea = new TextArea();
+    private final ListView<String> resultList = new ListView<>();
+    // Replaced for every search, so rows from a cancelled search never reach the next one
+    private ResultStream results = new ResultStream();
+    // Stops the running search, in process or in the daemon
+    private volatile Runnable activeSearch;
+    // Live mode: liveField edits the pattern, and a search runs once typing pauses
+    private static final int LIVE_DELAY_MS = 250;
+    private final CheckBox liveBox = new CheckBox("Live");
+    private final TextField liveField = new TextField();
+    private final PauseTransition liveDelay = new PauseTransition(Duration.millis(LIVE_DELAY_MS));
+    private final LiveSearch live = new LiveSearch();
     private final List<File> selectedFiles = new ArrayList<>();
     private File selectedDirectory = null;
 
@@ -32,11 +47,27 @@ public class PERG extends Application {
     private final CheckBox recursiveBox = new CheckBox("Recursive (-r)");
     private final CheckBox verboseBox = new CheckBox("Verbose (-V)");
     private final CheckBox invertBox = new CheckBox("Invert Match (-v)");
-    private final CheckBox parallelBox = new CheckBox("File Parallelism (-w)");
     private final CheckBox hiddenBox = new CheckBox("Include Hidden Files (-i)");
     private final CheckBox afterContextBox = new CheckBox("After Context (-A)");
     private final CheckBox caseSensitiveBox = new CheckBox("Case Sensitive (-c)");
+    private final CheckBox useIndexBox = new CheckBox("Use Trigram Index (-x)");
+    private final CheckBox nativeEngineBox = new CheckBox("Native Engine, libperg (--native)");
+    private final CheckBox cacheBox = new CheckBox("Reuse Cached Results (MB)");
+    private final TextField cacheSizeField = new TextField();
+    private final CheckBox diskCacheBox = new CheckBox("Disk Cache");
     private final TextField afterContextField = new TextField();
+    private final CheckBox filesWithMatchesBox = new CheckBox("File Names Only (-l)");
+    private final TextField maxCountField = new TextField();
+    private final CheckBox skipBinaryBox = new CheckBox("Skip Binary Files (-I)");
+    private final CheckBox archivesBox = new CheckBox("Search Inside Archives (-z)");
+    private final TextField encodingField = new TextField();
+    private final CheckBox ignoreFilesBox = new CheckBox("Honour .gitignore / .ignore");
+    private final TextField includeField = new TextField();
+    private final TextField excludeField = new TextField();
+    private final TextField excludeDirField = new TextField();
+    private final TextField extensionsField = new TextField();
+    private final TextField maxSizeField = new TextField();
+    private final TextField parallelismField = new TextField();
     
     // Radio buttons for search mode
     private final ToggleGroup searchModeGroup = new ToggleGroup();
@@ -94,10 +125,37 @@ public class PERG extends Application {
         patternField.setMaxWidth(350);
         patternField.setStyle("-fx-font-size: 14px; -fx-padding: 8px;");
 
+        // Multi-pattern mode: many literal patterns searched in one pass
+        multiPatternBox.setStyle("-fx-text-fill: #F5CBA7; -fx-font-weight: bold;");
+        patternListArea.setPromptText("ERR_1001\nERR_1002\nTIMEOUT");
+        patternListArea.setMaxWidth(350);
+        patternListArea.setPrefRowCount(6);
+
+        Button loadPatternsBtn = new Button("Load Pattern File");
+        loadPatternsBtn.setStyle("-fx-background-color: #D35400; -fx-text-fill: white;");
+        loadPatternsBtn.setOnAction(e -> {
+            FileChooser fileChooser = new FileChooser();
+            fileChooser.setTitle("Select Pattern File");
+            File file = fileChooser.showOpenDialog(null);
+            if (file != null) {
+                try {
+                    patternListArea.setText(String.join("\n", SearchOptions.readPatterns(file.toPath())));
+                } catch (IllegalArgumentException ex) {
+                    showAlert(ex.getMessage());
+                }
+            }
+        });
+
+        VBox patternListBox = new VBox(10, patternListArea, loadPatternsBtn);
+        patternListBox.setAlignment(Pos.CENTER);
+        patternListBox.visibleProperty().bind(multiPatternBox.selectedProperty());
+        patternListBox.managedProperty().bind(multiPatternBox.selectedProperty());
+        patternField.disableProperty().bind(multiPatternBox.selectedProperty());
+
         Button nextBtn = new Button("Next ➡ Select Folder");
         nextBtn.setStyle("-fx-background-color: #E67E22; -fx-font-weight: bold; -fx-font-size: 14px; -fx-padding: 10px 20px;");
         nextBtn.setOnAction(e -> {
-            if (patternField.getText().isEmpty()) {
+            if (multiPatternBox.isSelected() ? patternList().isEmpty() : patternField.getText().isEmpty()) {
                 showAlert("Please enter a search pattern.");
                 return;
             }
@@ -115,6 +173,8 @@ public class PERG extends Application {
             new Region() {{ setPrefHeight(30); }}, // Spacer
             patternLabel,
             patternField,
+            multiPatternBox,
+            patternListBox,
             new Region() {{ setPrefHeight(10); }}, // Spacer
             nextBtn
         );
@@ -175,6 +235,24 @@ public class PERG extends Application {
 
         afterContextField.setPromptText("Lines for -A");
         afterContextField.setMaxWidth(50);
+        maxCountField.setPromptText("All");
+        maxCountField.setMaxWidth(50);
+        skipBinaryBox.setSelected(true);
+        encodingField.setPromptText("Auto");
+        encodingField.setMaxWidth(100);
+        ignoreFilesBox.setSelected(true);
+        includeField.setPromptText("*.java, src/**");
+        excludeField.setPromptText("*.min.js");
+        excludeDirField.setPromptText("node_modules, build");
+        extensionsField.setPromptText("java, xml");
+        maxSizeField.setPromptText("10M");
+        maxSizeField.setMaxWidth(60);
+
+        cacheBox.setSelected(true);
+        cacheSizeField.setPromptText(String.valueOf(ResultCache.DEFAULT_BYTES >> 20));
+        cacheSizeField.setMaxWidth(60);
+        cacheSizeField.disableProperty().bind(cacheBox.selectedProperty().not());
+        diskCacheBox.disableProperty().bind(cacheBox.selectedProperty().not());
 
         // Setup radio buttons for search mode
         noneRadio.setToggleGroup(searchModeGroup);
@@ -221,7 +299,13 @@ public class PERG extends Application {
         });
         
         HBox fileButtonsBox = new HBox(10, selectFilesBtn, clearFilesBtn);
-        fileUploadSection.getChildren().addAll(fileButtonsBox, filesCountLabel, filesScrollPane);
+
+        parallelismField.setPromptText(String.valueOf(Runtime.getRuntime().availableProcessors()));
+        parallelismField.setMaxWidth(50);
+        HBox parallelismBox = new HBox(10, new Label("Search threads:"), parallelismField);
+        parallelismBox.setAlignment(Pos.CENTER_LEFT);
+
+        fileUploadSection.getChildren().addAll(fileButtonsBox, filesCountLabel, filesScrollPane, parallelismBox);
 
         // Toggle file upload section based on radio button selection
         searchModeGroup.selectedToggleProperty().addListener((obs, oldToggle, newToggle) -> {
@@ -237,7 +321,7 @@ public class PERG extends Application {
 
         // Help button
         helpButton.setStyle("-fx-background-color: #3498DB; -fx-text-fill: white; -fx-font-weight: bold;");
-        helpButton.setOnAction(e -> showHelpFromExecutable());
+        helpButton.setOnAction(e -> showHelp());
 
         // Search mode section
         VBox searchModeBox = new VBox(5);
@@ -255,10 +339,21 @@ public class PERG extends Application {
             recursiveBox, 
             verboseBox, 
             invertBox, 
-            parallelBox, 
             hiddenBox,
             caseSensitiveBox,  // Added case sensitive option
+            useIndexBox,
+            nativeEngineBox,
+            new HBox(10, cacheBox, cacheSizeField, diskCacheBox),
             new HBox(10, afterContextBox, afterContextField),
+            new HBox(10, new Label("Max Matches per File (-m)"), maxCountField),
+            filesWithMatchesBox,
+            skipBinaryBox,
+            archivesBox,
+            new HBox(10, new Label("Encoding (--encoding)"), encodingField),
+            ignoreFilesBox,
+            new HBox(10, new Label("Include"), includeField, new Label("Exclude"), excludeField),
+            new HBox(10, new Label("Exclude Folders"), excludeDirField),
+            new HBox(10, new Label("Extensions"), extensionsField, new Label("Max Size"), maxSizeField),
             new Separator(),
             helpButton
         );
@@ -281,13 +376,22 @@ public class PERG extends Application {
             }
             optionPane.setVisible(false);
             resultPane.setVisible(true);
-            resultArea.clear();
+            cancelSearch();
+            // A full search again, so live narrowing starts over from fresh files
+            live.reset();
+            results.close();
+            results = new ResultStream();
+            resultList.setItems(results.rows());
             
             String searchMode = noneRadio.isSelected() ? "All files in folder" : "Multiple files (" + selectedFiles.size() + " files)";
-            resultArea.appendText("Search Mode: " + searchMode + "\n");
-            resultArea.appendText("Searching for pattern: " + patternField.getText() + "\n");
-            resultArea.appendText("Case Sensitive: " + (caseSensitiveBox.isSelected() ? "Yes" : "No") + "\n\n");
-            runPergSearch(patternField.getText());
+            results.append("Search Mode: " + searchMode + "\n");
+            if (multiPatternBox.isSelected()) {
+                results.append("Searching for " + patternList().size() + " patterns\n");
+            } else {
+                results.append("Searching for pattern: " + patternField.getText() + "\n");
+            }
+            results.append("Case Sensitive: " + (caseSensitiveBox.isSelected() ? "Yes" : "No") + "\n\n");
+            runPergSearch(patternField.getText(), results);
         });
 
         optionPane.getChildren().addAll(optionsBox, new HBox(20, backBtn, searchBtn));
@@ -328,13 +432,35 @@ public class PERG extends Application {
         Label label = new Label("Search Results:");
         label.setStyle("-fx-font-size: 18px; -fx-text-fill: #F5CBA7; -fx-font-weight: bold;");
 
-        resultArea.setEditable(false);
-        resultArea.setPrefHeight(500);
-        resultArea.setWrapText(true);
+        // ListView only lays out the visible rows, so large result sets stay responsive
+        resultList.setPrefHeight(500);
+        resultList.setStyle("-fx-font-family: monospace;");
+
+        // Every keystroke stops the running query; the next starts when typing pauses
+        liveField.textProperty().bindBidirectional(patternField.textProperty());
+        liveField.setPromptText("Type to search as you go");
+        liveField.setPrefWidth(350);
+        liveField.disableProperty().bind(liveBox.selectedProperty().not());
+        liveBox.setStyle("-fx-text-fill: #F5CBA7; -fx-font-weight: bold;");
+        liveBox.disableProperty().bind(multiPatternBox.selectedProperty());
+        liveField.textProperty().addListener((obs, old, text) -> {
+            if (liveBox.isSelected()) scheduleLiveSearch();
+        });
+        liveBox.selectedProperty().addListener((obs, old, on) -> {
+            if (on) scheduleLiveSearch();
+        });
+        liveDelay.setOnFinished(e -> runLiveSearch());
+        HBox liveRow = new HBox(10, liveBox, liveField);
+        liveRow.setAlignment(Pos.CENTER_LEFT);
+
+        Button stopBtn = new Button("⏹ Stop");
+        stopBtn.setStyle("-fx-background-color: #E67E22; -fx-font-weight: bold;");
+        stopBtn.setOnAction(e -> cancelSearch());
 
         Button backBtn = new Button("🔙 Back");
         backBtn.setStyle("-fx-background-color: #E67E22; -fx-font-weight: bold;");
         backBtn.setOnAction(e -> {
+            cancelSearch();
             resultPane.setVisible(false);
             optionPane.setVisible(true);
         });
@@ -342,209 +468,302 @@ public class PERG extends Application {
         Button restartBtn = new Button("🔁 Back to Start");
         restartBtn.setStyle("-fx-background-color: #E67E22; -fx-font-weight: bold;");
         restartBtn.setOnAction(e -> {
+            cancelSearch();
             resultPane.setVisible(false);
             patternPane.setVisible(true);
         });
 
-        resultPane.getChildren().addAll(label, resultArea, new HBox(20, backBtn, restartBtn));
+        resultPane.getChildren().addAll(label, liveRow, resultList, new HBox(20, stopBtn, backBtn, restartBtn));
+    }
+
+    private void scheduleLiveSearch() {
+        cancelSearch();
+        liveDelay.playFromStart();
     }
 
-    private void runPergSearch(String pattern) {
+    // Runs the pattern in liveField against the folder or files already chosen;
+    // LiveSearch reads only what the last query found when it can
+    private void runLiveSearch() {
+        String pattern = liveField.getText();
+        boolean useFiles = fileSearchRadio.isSelected() && !selectedFiles.isEmpty();
+        if (!liveBox.isSelected() || pattern.isEmpty() || multiPatternBox.isSelected()
+                || (selectedDirectory == null && !useFiles)) {
+            return;
+        }
+        results.close();
+        results = new ResultStream();
+        resultList.setItems(results.rows());
+        ResultStream out = results;
+        out.append("Live search for pattern: " + pattern + "\n");
+
+        List<Path> files = new ArrayList<>();
+        if (useFiles) {
+            for (File file : selectedFiles) files.add(file.toPath());
+        }
+        Path dir = useFiles ? files.get(0).toAbsolutePath().getParent() : selectedDirectory.toPath();
+        long ticket = live.ticket();
+        activeSearch = live::cancel;
+        new Thread(() -> {
+            try {
+                SearchOptions options = buildOptions(pattern);
+                out.setEncoding(options.encoding);
+                LiveSearch.Outcome outcome = live.search(ticket, options, dir, files, streamTo(out, options.verbose));
+                if (outcome == null) return;
+                SearchStats stats = outcome.stats();
+                if (!stats.found()) {
+                    out.append("NO MATCHES FOUND\n");
+                }
+                if (stats.stopReason != null) {
+                    out.append("Search stopped early: " + stats.stopReason + "\n");
+                }
+                if (outcome.scope() == LiveSearch.Scope.FILES) {
+                    out.append("\nSearched only the files the last query matched\n");
+                } else if (outcome.scope() == LiveSearch.Scope.LINES) {
+                    out.append("\nSearched only the lines the last query matched\n");
+                }
+                appendStats(out, stats);
+            } catch (Exception e) {
+                out.append("\nError: " + e.getMessage() + "\n");
+            }
+        }).start();
+    }
+
+    private void cancelSearch() {
+        Runnable cancel = activeSearch;
+        if (cancel != null) cancel.run();
+    }
+
+    private void runPergSearch(String pattern, ResultStream results) {
+        // Set before the thread starts, so Stop or Back right away still stops it
+        Cancellation cancellation = new Cancellation();
+        activeSearch = cancellation::cancel;
         new Thread(() -> {
             try {
                 if (fileSearchRadio.isSelected() && !selectedFiles.isEmpty()) {
-                    // Search multiple files individually
-                    for (int i = 0; i < selectedFiles.size(); i++) {
-                        File file = selectedFiles.get(i);
-                        Platform.runLater(() -> {
-                            resultArea.appendText("=== Searching File " + (selectedFiles.indexOf(file) + 1) + "/" + selectedFiles.size() + ": " + file.getName() + " ===\n");
-                        });
-                        
-                        searchSingleFile(file, pattern, i + 1);
-                        
-                        if (i < selectedFiles.size() - 1) {
-                            Platform.runLater(() -> {
-                                resultArea.appendText("\n" + "=".repeat(50) + "\n\n");
-                            });
-                        }
-                    }
+                    searchMultipleFiles(pattern, results, cancellation);
                 } else {
                     // Search directory
-                    searchDirectory(pattern);
+                    searchDirectory(pattern, results, cancellation);
                 }
             } catch (Exception e) {
-                Platform.runLater(() -> resultArea.appendText("\nError: " + e.getMessage() + "\n"));
+                results.append("\nError: " + e.getMessage() + "\n");
             }
         }).start();
     }
 
-    private void searchSingleFile(File file, String pattern, int fileNumber) {
-        try {
-            long startTime = System.nanoTime();
-
-            List<String> command = new ArrayList<>();
-            command.add("C:\\Users\\dell\\Downloads\\JAVA PDC\\app\\src\\main\\java\\org\\example\\perg.exe");
-            command.add("-f");
-            command.add(file.getAbsolutePath());
-
-            if (recursiveBox.isSelected()) command.add("-r");
-            if (verboseBox.isSelected()) command.add("-V");
-            if (invertBox.isSelected()) command.add("-v");
-            if (parallelBox.isSelected()) command.add("-w");
-            if (hiddenBox.isSelected()) command.add("-i");
-            if (caseSensitiveBox.isSelected()) command.add("-c");
-            if (afterContextBox.isSelected()) {
-                command.add("-A");
-                command.add(afterContextField.getText().trim().isEmpty() ? "1" : afterContextField.getText().trim());
+    private SearchOptions buildOptions(String pattern) {
+        SearchOptions options = new SearchOptions();
+        options.recursive = recursiveBox.isSelected();
+        options.verbose = verboseBox.isSelected();
+        options.invert = invertBox.isSelected();
+        options.checkHidden = hiddenBox.isSelected();
+        options.caseSensitive = caseSensitiveBox.isSelected();
+        options.useIndex = useIndexBox.isSelected();
+        // libperg matches one regex; pattern lists always use Aho-Corasick
+        options.nativeEngine = nativeEngineBox.isSelected() && !multiPatternBox.isSelected();
+        if (cacheBox.isSelected()) {
+            String megabytes = cacheSizeField.getText().trim();
+            options.cacheBytes = megabytes.isEmpty() ? ResultCache.DEFAULT_BYTES : Long.parseLong(megabytes) << 20;
+            options.diskCache = diskCacheBox.isSelected();
+        }
+        if (afterContextBox.isSelected()) {
+            String count = afterContextField.getText().trim();
+            options.extra = true;
+            options.numExtra = count.isEmpty() ? 1 : Integer.parseInt(count);
+        }
+        String maxCount = maxCountField.getText().trim();
+        if (!maxCount.isEmpty()) {
+            options.maxPerFile = Math.max(1, Long.parseLong(maxCount));
+        }
+        options.filesWithMatches = filesWithMatchesBox.isSelected();
+        if (skipBinaryBox.isSelected()) {
+            options.binaryFiles = SearchOptions.BinaryFiles.SKIP;
+        }
+        options.archives = archivesBox.isSelected();
+        String encoding = encodingField.getText().trim();
+        if (!encoding.isEmpty()) {
+            options.encoding = SearchOptions.parseEncoding("Encoding", encoding);
+        }
+        options.ignoreFiles = ignoreFilesBox.isSelected();
+        options.includeGlobs.addAll(globList(includeField));
+        options.excludeGlobs.addAll(globList(excludeField));
+        options.excludeDirGlobs.addAll(globList(excludeDirField));
+        options.addExtensions(extensionsField.getText());
+        String maxSize = maxSizeField.getText().trim();
+        if (!maxSize.isEmpty()) {
+            options.maxFileSize = SearchOptions.parseSize("Max Size", maxSize);
+        }
+        String threads = parallelismField.getText().trim();
+        if (!threads.isEmpty()) {
+            options.parallelism = Math.max(1, Integer.parseInt(threads));
+        }
+        if (multiPatternBox.isSelected()) {
+            options.addPatterns(patternList());
+        } else {
+            options.term = pattern;
+        }
+        return options;
+    }
+
+    private List<String> patternList() {
+        List<String> patterns = new ArrayList<>();
+        for (String line : patternListArea.getText().split("\n")) {
+            if (!line.isBlank()) patterns.add(line);
+        }
+        return patterns;
+    }
+
+    // Comma-separated globs; commas inside {a,b} belong to the glob
+    private static List<String> globList(TextField field) {
+        List<String> globs = new ArrayList<>();
+        String text = field.getText();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ',';
+            if (c == '{') depth++;
+            else if (c == '}' && depth > 0) depth--;
+            else if (c == ',' && depth == 0) {
+                String glob = text.substring(start, i).trim();
+                if (!glob.isEmpty()) globs.add(glob);
+                start = i + 1;
             }
+        }
+        return globs;
+    }
 
-            command.add(pattern);
+    // Streams engine output row by row, in the same text layout perg.exe printed
+    private SearchListener streamTo(ResultStream results, boolean verbose) {
+        return new SearchListener() {
+            private boolean first = true;
 
-            ProcessBuilder pb = new ProcessBuilder(command);
-            pb.redirectErrorStream(true);
+            @Override
+            public void onMatch(Match match) {
+                if (first) {
+                    results.append("Results:");
+                    first = false;
+                }
+                results.append(match, verbose);
+            }
 
-            Process process = pb.start();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            StringBuilder output = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
+            @Override
+            public void onWarning(String message) {
+                results.append("WARNING: " + message);
             }
 
-            int exitCode = process.waitFor();
-            long endTime = System.nanoTime();
-            long durationMillis = (endTime - startTime) / 1_000_000;
+            @Override
+            public void onFileStart(Path file) {
+                first = true;
+            }
+        };
+    }
 
-            String resultText = output.toString().trim();
-            Platform.runLater(() -> {
-                if (resultText.isEmpty()) {
-                    resultArea.appendText("NO MATCHES FOUND\n");
-                } else if (resultText.contains("not found")) {
-                    resultArea.appendText(resultText + "\n");
-                } else {
-                    resultArea.appendText("Results:\n");
-                    resultArea.appendText(resultText + "\n");
+    private void searchMultipleFiles(String pattern, ResultStream results, Cancellation cancellation) {
+        try {
+            SearchOptions options = buildOptions(pattern);
+            results.setEncoding(options.encoding);
+            List<Path> files = new ArrayList<>(selectedFiles.size());
+            for (File file : selectedFiles) files.add(file.toPath());
+
+            SearchEngine engine = new SearchEngine(options);
+            cancellation.attach(engine::cancel);
+            SearchStats stats = engine.searchFiles(files, new SearchListener() {
+                private final SearchListener matches = streamTo(results, options.verbose);
+                private int fileNumber;
+
+                @Override
+                public void onMatch(Match match) {
+                    matches.onMatch(match);
+                }
+
+                @Override
+                public void onWarning(String message) {
+                    matches.onWarning(message);
+                }
+
+                @Override
+                public void onFileStart(Path file) {
+                    fileNumber++;
+                    results.append("=== Searching File " + fileNumber + "/" + files.size() + ": " + file.getFileName() + " ===\n");
+                    matches.onFileStart(file);
+                }
+
+                @Override
+                public void onFileDone(Path file, SearchStats fileStats, long nanos) {
+                    if (!fileStats.found()) {
+                        results.append("NO MATCHES FOUND\n");
+                    }
+                    results.append("Execution Time: " + nanos / 1_000_000 + " ms\n");
+                    if (fileNumber < files.size()) {
+                        results.append("\n" + "=".repeat(50) + "\n\n");
+                    }
                 }
-                resultArea.appendText("Execution Time: " + durationMillis + " ms\n");
             });
 
+            results.append("\n" + "=".repeat(50) + "\n");
+            if (stats.stopReason != null) {
+                results.append("Search stopped early: " + stats.stopReason + "\n");
+            }
+            appendStats(results, stats);
+
         } catch (Exception e) {
-            Platform.runLater(() -> resultArea.appendText("Error searching file: " + e.getMessage() + "\n"));
+            results.append("Error searching files: " + e.getMessage() + "\n");
         }
     }
 
-    private void searchDirectory(String pattern) {
+    private void searchDirectory(String pattern, ResultStream results, Cancellation cancellation) {
         try {
-            long startTime = System.nanoTime();
-
-            List<String> command = new ArrayList<>();
-            command.add("C:\\Users\\dell\\Downloads\\JAVA PDC\\app\\src\\main\\java\\org\\example\\perg.exe");
-
-            if (recursiveBox.isSelected()) command.add("-r");
-            if (verboseBox.isSelected()) command.add("-V");
-            if (invertBox.isSelected()) command.add("-v");
-            if (parallelBox.isSelected()) command.add("-w");
-            if (hiddenBox.isSelected()) command.add("-i");
-            if (caseSensitiveBox.isSelected()) command.add("-c");
-            if (afterContextBox.isSelected()) {
-                command.add("-A");
-                command.add(afterContextField.getText().trim().isEmpty() ? "1" : afterContextField.getText().trim());
+            SearchOptions options = buildOptions(pattern);
+            results.setEncoding(options.encoding);
+            results.append("Directory: " + selectedDirectory.getName() + "\n");
+            SearchListener listener = streamTo(results, options.verbose);
+            // A running daemon (perg-cli --daemon) has warm caches; otherwise search here
+            DaemonClient daemon = DaemonClient.connect();
+            SearchStats stats;
+            if (daemon != null) {
+                cancellation.attach(daemon::cancel);
+                stats = daemon.search(options, selectedDirectory.toPath(), List.of(), listener);
+            } else {
+                SearchEngine engine = new SearchEngine(options);
+                cancellation.attach(engine::cancel);
+                stats = engine.searchDirectory(selectedDirectory.toPath(), listener);
             }
 
-            command.add(pattern);
-
-            ProcessBuilder pb = new ProcessBuilder(command);
-            pb.redirectErrorStream(true);
-            pb.directory(selectedDirectory);
-
-            Process process = pb.start();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            StringBuilder output = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
+            if (!stats.found()) {
+                results.append("NO MATCHES FOUND\n");
             }
-
-            int exitCode = process.waitFor();
-            long endTime = System.nanoTime();
-            long durationMillis = (endTime - startTime) / 1_000_000;
-
-            String resultText = output.toString().trim();
-            Platform.runLater(() -> {
-                resultArea.appendText("Directory: " + selectedDirectory.getName() + "\n");
-                
-                if (resultText.isEmpty()) {
-                    resultArea.appendText("NO MATCHES FOUND\n");
-                } else if (resultText.contains("not found")) {
-                    resultArea.appendText(resultText + "\n");
-                } else {
-                    resultArea.appendText("Results:\n");
-                    resultArea.appendText(resultText + "\n");
-                }
-                resultArea.appendText("Execution Time: " + durationMillis + " ms\n\n");
-            });
+            if (stats.stopReason != null) {
+                results.append("Search stopped early: " + stats.stopReason + "\n");
+            }
+            appendStats(results, stats);
 
         } catch (Exception e) {
-            Platform.runLater(() -> resultArea.appendText("Error searching directory: " + e.getMessage() + "\n"));
+            results.append("Error searching directory: " + e.getMessage() + "\n");
         }
     }
 
-    private void showHelpFromExecutable() {
-        new Thread(() -> {
-            try {
-                List<String> command = new ArrayList<>();
-                command.add("C:\\Users\\dell\\Downloads\\JAVA PDC\\app\\src\\main\\java\\org\\example\\perg.exe");
-                command.add("-h");
-
-                ProcessBuilder pb = new ProcessBuilder(command);
-                pb.redirectErrorStream(true);
-                pb.directory(new File("C:\\Users\\dell\\Downloads\\JAVA PDC\\app\\src\\main\\java\\org\\example"));
-
-                Process process = pb.start();
-                BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                StringBuilder helpOutput = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    helpOutput.append(line).append("\n");
-                }
-
-                int exitCode = process.waitFor();
-                String helpText = helpOutput.toString();
-
-                Platform.runLater(() -> {
-                    Alert helpAlert = new Alert(Alert.AlertType.INFORMATION);
-                    helpAlert.setTitle("Perg Help");
-                    helpAlert.setHeaderText("Parallel File Search Help");
-                    
-                    if (helpText.trim().isEmpty()) {
-                        helpAlert.setContentText("Help information not available. Please check if perg.exe is working correctly.");
-                    } else {
-                        helpAlert.setContentText(helpText);
-                    }
-                    
-                    helpAlert.getDialogPane().setPrefWidth(800);
-                    helpAlert.getDialogPane().setPrefHeight(600);
-                    
-                    TextArea textArea = new TextArea(helpText);
-                    textArea.setEditable(false);
-                    textArea.setWrapText(true);
-                    textArea.setPrefRowCount(25);
-                    textArea.setPrefColumnCount(100);
-                    
-                    helpAlert.getDialogPane().setContent(textArea);
-                    helpAlert.showAndWait();
-                });
+    // Replaces the old single "Execution Time" line
+    private void appendStats(ResultStream results, SearchStats stats) {
+        results.append("\nExecution Time: " + stats.wallNanos / 1_000_000 + " ms\n");
+        results.append(stats.report());
+        results.append("UI: " + results.renderNanos() / 1_000_000 + " ms adding result rows\n");
+    }
 
-            } catch (Exception e) {
-                Platform.runLater(() -> {
-                    Alert errorAlert = new Alert(Alert.AlertType.ERROR);
-                    errorAlert.setTitle("Help Error");
-                    errorAlert.setHeaderText("Could not retrieve help information");
-                    errorAlert.setContentText("Error executing perg.exe -h: " + e.getMessage());
-                    errorAlert.showAndWait();
-                });
-            }
-        }).start();
+    private void showHelp() {
+        Alert helpAlert = new Alert(Alert.AlertType.INFORMATION);
+        helpAlert.setTitle("Perg Help");
+        helpAlert.setHeaderText("Parallel File Search Help");
+        helpAlert.getDialogPane().setPrefWidth(800);
+        helpAlert.getDialogPane().setPrefHeight(600);
+
+        TextArea textArea = new TextArea(SearchOptions.HELP);
+        textArea.setEditable(false);
+        textArea.setWrapText(true);
+        textArea.setPrefRowCount(25);
+        textArea.setPrefColumnCount(100);
+
+        helpAlert.getDialogPane().setContent(textArea);
+        helpAlert.showAndWait();
     }
 
     private void showAlert(String msg) {
@@ -554,7 +773,35 @@ public class PERG extends Application {
         alert.showAndWait();
     }
 
+    @Override
+    public void stop() {
+        cancelSearch();
+        TrigramIndex.closeAll();
+    }
+
     public static void main(String[] args) {
         launch();
     }
+
+    // Stops a search that runs on its own thread, including one cancelled
+    // before that thread had an engine or daemon to stop
+    private static final class Cancellation {
+
+        private boolean cancelled;
+        private Runnable stop;
+
+        synchronized void attach(Runnable stop) {
+            this.stop = stop;
+            if (cancelled) stop.run();
+        }
+
+        void cancel() {
+            Runnable stop;
+            synchronized (this) {
+                cancelled = true;
+                stop = this.stop;
+            }
+            if (stop != null) stop.run();
+        }
+    }
 }
\ No newline at end of file
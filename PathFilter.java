@@ -0,0 +1,269 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// Which files a directory search looks at beyond the recursive and hidden rules:
+// --include, --exclude and --exclude-dir globs, --ext, --max-size, and the
+// .gitignore and .ignore files met on the way down. Directories it rejects are
+// never walked, so everything under them costs nothing.
+//
+// Globs without a '/' match the name; others match the path under the search
+// root. Ignore files follow git's rules: last matching line wins, a deeper file
+// wins over its parents, '!' re-includes, a trailing '/' only matches
+// directories, and a '/' anywhere else anchors the pattern to the file's folder.
+final class PathFilter {
+
+    private static final String[] IGNORE_FILES = { ".gitignore", ".ignore" };
+
+    private final Path root;
+    private final List<Glob> include;
+    private final List<Glob> exclude;
+    private final List<Glob> excludeDir;
+    private final List<String> extensions;
+    private final long maxSize;
+    private final boolean ignoreFiles;
+    // Rules per directory, for the index, which checks paths rather than walking
+    private final Map<Path, Rules> rulesByDir = new HashMap<>();
+
+    PathFilter(SearchOptions options, Path root) {
+        this.root = root;
+        this.include = globs(options.includeGlobs);
+        this.exclude = globs(options.excludeGlobs);
+        this.excludeDir = globs(options.excludeDirGlobs);
+        this.extensions = options.extensions.stream().map(e -> "." + e.toLowerCase(Locale.ROOT)).toList();
+        this.maxSize = options.maxFileSize;
+        this.ignoreFiles = options.ignoreFiles;
+    }
+
+    // The ignore rules of one directory, chained to those of its parent
+    static final class Rules {
+
+        private final Path dir;
+        private final Rules parent;
+        private final List<Rule> rules;
+
+        private Rules(Path dir, Rules parent, List<Rule> rules) {
+            this.dir = dir;
+            this.parent = parent;
+            this.rules = rules;
+        }
+    }
+
+    private record Rule(Pattern pattern, boolean negate, boolean dirOnly, boolean anchored) {}
+
+    private record Glob(Pattern pattern, boolean anchored) {
+
+        boolean matches(String rel, String name) {
+            return pattern.matcher(anchored ? rel : name).matches();
+        }
+    }
+
+    // Rules from the folders above root, up to the enclosing git work tree, so
+    // searching a subfolder of a repository honours the repository's .gitignore
+    Rules above(Path dir) {
+        if (!ignoreFiles) return null;
+        List<Path> chain = new ArrayList<>();
+        for (Path p = dir.toAbsolutePath().normalize().getParent(); p != null; p = p.getParent()) {
+            chain.add(p);
+            if (Files.exists(p.resolve(".git"))) {
+                Rules rules = null;
+                for (int i = chain.size() - 1; i >= 0; i--) rules = enter(chain.get(i), rules);
+                return rules;
+            }
+        }
+        return null;
+    }
+
+    // Reads dir's own ignore files; parent holds the rules of the folder above
+    Rules enter(Path dir, Rules parent) {
+        if (!ignoreFiles) return null;
+        List<Rule> rules = new ArrayList<>();
+        for (String name : IGNORE_FILES) {
+            Path file = dir.resolve(name);
+            if (!Files.isRegularFile(file)) continue;
+            try {
+                for (String line : Files.readAllLines(file)) {
+                    Rule rule = parseRule(line);
+                    if (rule != null) rules.add(rule);
+                }
+            } catch (IOException | RuntimeException e) {
+                // An unreadable ignore file ignores nothing
+            }
+        }
+        return rules.isEmpty() ? parent : new Rules(dir.toAbsolutePath().normalize(), parent, rules);
+    }
+
+    // rules are those of the directory that holds dir
+    boolean acceptsDir(Path dir, Rules rules) {
+        String name = dir.getFileName().toString();
+        if (ignoreFiles && name.equals(".git")) return false;
+        String rel = relative(root, dir);
+        for (Glob glob : excludeDir) {
+            if (glob.matches(rel, name)) return false;
+        }
+        return !ignored(dir, name, true, rules);
+    }
+
+    // rules are those of the directory that holds file
+    boolean acceptsFile(Path file, long size, Rules rules) {
+        if (maxSize > 0 && size > maxSize) return false;
+        String name = file.getFileName().toString();
+        if (!extensions.isEmpty()) {
+            String lower = name.toLowerCase(Locale.ROOT);
+            if (extensions.stream().noneMatch(lower::endsWith)) return false;
+        }
+        String rel = relative(root, file);
+        if (!include.isEmpty() && include.stream().noneMatch(g -> g.matches(rel, name))) return false;
+        for (Glob glob : exclude) {
+            if (glob.matches(rel, name)) return false;
+        }
+        return !ignored(file, name, false, rules);
+    }
+
+    // Same decision for a path under root that was found without walking, as the
+    // trigram index does: every folder on the way must be accepted too
+    boolean accepts(Path rel, long size) {
+        Path dir = root;
+        Rules rules = rulesFor(root);
+        for (int i = 0; i < rel.getNameCount() - 1; i++) {
+            dir = dir.resolve(rel.getName(i));
+            if (!acceptsDir(dir, rules)) return false;
+            rules = rulesFor(dir);
+        }
+        return acceptsFile(root.resolve(rel), size, rules);
+    }
+
+    private Rules rulesFor(Path dir) {
+        Rules rules = rulesByDir.get(dir);
+        if (rules == null && !rulesByDir.containsKey(dir)) {
+            rules = enter(dir, dir.equals(root) ? above(root) : rulesFor(dir.getParent()));
+            rulesByDir.put(dir, rules);
+        }
+        return rules;
+    }
+
+    private static boolean ignored(Path path, String name, boolean isDir, Rules rules) {
+        Path abs = rules == null ? null : path.toAbsolutePath().normalize();
+        for (Rules r = rules; r != null; r = r.parent) {
+            String rel = relative(r.dir, abs);
+            for (int i = r.rules.size() - 1; i >= 0; i--) {
+                Rule rule = r.rules.get(i);
+                if (rule.dirOnly && !isDir) continue;
+                if (rule.pattern.matcher(rule.anchored ? rel : name).matches()) return !rule.negate;
+            }
+        }
+        return false;
+    }
+
+    private static Rule parseRule(String line) {
+        if (line.endsWith("\r")) line = line.substring(0, line.length() - 1);
+        // Trailing spaces are dropped unless escaped
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == ' ' && (end < 2 || line.charAt(end - 2) != '\\')) end--;
+        line = line.substring(0, end);
+        if (line.isEmpty() || line.startsWith("#")) return null;
+
+        boolean negate = line.startsWith("!");
+        if (negate) line = line.substring(1);
+        else if (line.startsWith("\\!") || line.startsWith("\\#")) line = line.substring(1);
+        boolean dirOnly = line.endsWith("/");
+        if (dirOnly) line = line.substring(0, line.length() - 1);
+        boolean anchored = line.contains("/");
+        if (line.startsWith("/")) line = line.substring(1);
+        if (line.isEmpty()) return null;
+        return new Rule(Pattern.compile(toRegex(line, false)), negate, dirOnly, anchored);
+    }
+
+    private static List<Glob> globs(List<String> globs) {
+        List<Glob> compiled = new ArrayList<>(globs.size());
+        for (String glob : globs) {
+            String g = glob.startsWith("/") ? glob.substring(1) : glob;
+            compiled.add(new Glob(Pattern.compile(toRegex(g, true)), glob.contains("/")));
+        }
+        return compiled;
+    }
+
+    // '*' and '?' stay within one path segment, '**' crosses them, "**/" may
+    // match nothing, and [...] is a character class. Command line globs also take
+    // {a,b} alternatives.
+    static String toRegex(String glob, boolean braces) {
+        StringBuilder re = new StringBuilder();
+        int depth = 0;
+        int n = glob.length();
+        for (int i = 0; i < n; i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*' -> {
+                    if (i + 1 < n && glob.charAt(i + 1) == '*') {
+                        if (i + 2 < n && glob.charAt(i + 2) == '/') {
+                            re.append("(?:.*/)?");
+                            i += 2;
+                        } else {
+                            re.append(".*");
+                            i++;
+                        }
+                    } else {
+                        re.append("[^/]*");
+                    }
+                }
+                case '?' -> re.append("[^/]");
+                case '[' -> {
+                    int close = glob.indexOf(']', i + 2);
+                    if (close < 0) {
+                        re.append("\\[");
+                    } else {
+                        String body = glob.substring(i + 1, close);
+                        if (body.startsWith("!")) body = "^" + body.substring(1);
+                        re.append('[').append(body.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                        i = close;
+                    }
+                }
+                case '\\' -> {
+                    if (i + 1 < n) re.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+                }
+                case '{' -> {
+                    if (braces) {
+                        re.append("(?:");
+                        depth++;
+                    } else {
+                        re.append("\\{");
+                    }
+                }
+                case ',' -> re.append(depth > 0 ? "|" : ",");
+                case '}' -> {
+                    if (depth > 0) {
+                        re.append(')');
+                        depth--;
+                    } else {
+                        re.append("\\}");
+                    }
+                }
+                default -> {
+                    if (".+()^$|".indexOf(c) >= 0) re.append('\\');
+                    re.append(c);
+                }
+            }
+        }
+        while (depth-- > 0) re.append(')');
+        return re.toString();
+    }
+
+    // '/'-separated path of p under base, whatever the platform's separator
+    private static String relative(Path base, Path p) {
+        Path rel = base.relativize(p);
+        StringBuilder s = new StringBuilder();
+        for (Path part : rel) {
+            if (s.length() > 0) s.append('/');
+            s.append(part);
+        }
+        return s.toString();
+    }
+}
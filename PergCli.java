@@ -0,0 +1,233 @@
+package org.example;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Headless entry point: same options as the GUI, no JavaFX classes touched, so it
+// starts fast and runs without a display. Prints one JSON object per line by
+// default; --text prints the layout perg.exe used.
+//
+// Exit status follows grep: 0 when something matched, 1 when nothing did, 2 on
+// bad usage.
+//
+// When a daemon started with --daemon is running, the search runs there and
+// this process only prints the results (see PergDaemon); --local searches in
+// this process regardless.
+public final class PergCli {
+
+    static final String USAGE =
+        "Usage: perg-cli [options] [--] <term>\n" +
+        "    -d    Directory             Folder to search (default: current directory)\n" +
+        "    -f    File                  Search this file; repeat to search several\n" +
+        "    --text                      Plain text output instead of JSON lines\n" +
+        "    --stats                     With --text, print timing and I/O figures to stderr\n" +
+        "    --local                     Search in this process even when a daemon is running\n" +
+        "    --daemon                    Run the search daemon (see --daemon -h)\n" +
+        "    --stop-daemon               Stop the running search daemon\n" +
+        SearchOptions.HELP;
+
+    private PergCli() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        System.exit(run(args));
+    }
+
+    static int run(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--daemon")) {
+            List<String> daemonArgs = List.of(args).subList(1, args.length);
+            if (daemonArgs.contains("-h") || daemonArgs.contains("--help")) {
+                System.out.print(PergDaemon.USAGE);
+                return 0;
+            }
+            return PergDaemon.run(daemonArgs);
+        }
+
+        Path dir = Path.of("");
+        List<Path> files = new ArrayList<>();
+        boolean text = false;
+        boolean printStats = false;
+        boolean local = false;
+        List<String> rest = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-h", "--help" -> {
+                    System.out.print(USAGE);
+                    return 0;
+                }
+                case "--text" -> text = true;
+                case "--stats" -> printStats = true;
+                case "--local" -> local = true;
+                case "--stop-daemon" -> {
+                    DaemonClient daemon = DaemonClient.connect();
+                    if (daemon == null) {
+                        System.err.println("No search daemon is running.");
+                        return 1;
+                    }
+                    daemon.shutdown();
+                    return 0;
+                }
+                case "-d", "-f" -> {
+                    if (i + 1 == args.length) {
+                        System.err.println("ERROR: Missing path after " + args[i] + " option.");
+                        return 2;
+                    }
+                    Path path = Path.of(args[++i]);
+                    if (args[i - 1].equals("-d")) dir = path;
+                    else files.add(path);
+                }
+                // The rest is the term, whatever it looks like
+                case "--" -> {
+                    rest.addAll(List.of(args).subList(i, args.length));
+                    i = args.length;
+                }
+                default -> rest.add(args[i]);
+            }
+        }
+
+        SearchOptions options;
+        try {
+            options = SearchOptions.parse(rest);
+        } catch (IllegalArgumentException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            System.err.println("Use 'perg-cli -h' for help.");
+            return 2;
+        }
+
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16),
+            false, StandardCharsets.UTF_8);
+        SearchListener listener = text ? new TextOutput(out, options.verbose) : new JsonOutput(out);
+        DaemonClient daemon = local ? null : DaemonClient.connect();
+
+        long startTime = System.nanoTime();
+        SearchStats stats;
+        try {
+            if (daemon != null) {
+                stats = daemon.search(options, dir, files, listener);
+            } else {
+                SearchEngine engine = new SearchEngine(options);
+                if (files.size() == 1) {
+                    stats = engine.searchFile(files.get(0), listener);
+                } else if (!files.isEmpty()) {
+                    stats = engine.searchFiles(files, listener);
+                } else {
+                    stats = engine.searchDirectory(dir, listener);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            out.flush();
+            System.err.println("ERROR: " + e.getMessage());
+            return 2;
+        } catch (IOException e) {
+            out.flush();
+            System.err.println("ERROR: Lost the search daemon: " + e.getMessage());
+            return 2;
+        } finally {
+            TrigramIndex.closeAll();
+        }
+        long nanos = System.nanoTime() - startTime;
+
+        if (!text) {
+            out.println(daemon != null ? daemon.lastSummary() : summary(stats, nanos));
+        } else if (!stats.found()) {
+            out.println("Search term \"" + (options.term != null ? options.term : String.join("\", \"", options.patterns))
+                + "\" not found.");
+        }
+        out.flush();
+        if (text && printStats) {
+            System.err.print(stats.report());
+        }
+        return stats.found() ? 0 : 1;
+    }
+
+    static String summary(SearchStats stats, long nanos) {
+        StringBuilder json = new StringBuilder("{\"type\":\"summary\"");
+        json.append(",\"files\":").append(stats.filesScanned.sum());
+        json.append(",\"files_cached\":").append(stats.filesCached.sum());
+        json.append(",\"files_skipped\":").append(stats.filesSkipped.sum());
+        json.append(",\"files_binary\":").append(stats.filesBinary.sum());
+        json.append(",\"bytes\":").append(stats.bytesRead.sum());
+        json.append(",\"lines\":").append(stats.linesScanned.sum());
+        json.append(",\"matched_lines\":").append(stats.matchedLines.sum());
+        json.append(",\"elapsed_ms\":").append(nanos / 1_000_000);
+        json.append(",\"discovery_ms\":").append(stats.discoveryNanos / 1_000_000);
+        json.append(",\"first_match_ms\":").append(stats.firstMatchNanos < 0 ? -1 : stats.firstMatchNanos / 1_000_000);
+        json.append(",\"open_ms\":").append(stats.openNanos.sum() / 1_000_000);
+        json.append(",\"read_ms\":").append(stats.readNanos.sum() / 1_000_000);
+        json.append(",\"scan_ms\":").append(stats.scanNanos.sum() / 1_000_000);
+        json.append(",\"matcher_ms\":").append(stats.matchNanos.sum() / 1_000_000);
+        json.append(",\"workers\":").append(stats.workers);
+        json.append(",\"utilization\":").append(String.format(Locale.ROOT, "%.3f", stats.utilization()));
+        json.append(",\"queue_max\":").append(stats.maxQueueDepth.get());
+        if (stats.stopReason != null) {
+            json.append(",\"stopped\":");
+            Json.appendString(json, stats.stopReason);
+        }
+        return json.append('}').toString();
+    }
+
+    // {"type":"match","path":...,"line":12,"offset":3480,"start":4,"end":9,"text":...}
+    // offset is the byte offset of the line in the file; start and end are the char
+    // span of the hit within text. Context lines have type "context" and no span,
+    // -l prints type "file", a matching binary file type "binary", and -A group
+    // separators are left out.
+    static String toJson(Match match) {
+        StringBuilder json = new StringBuilder(match.text().length() + 96);
+        json.append("{\"type\":\"").append(match.kind().name().toLowerCase(Locale.ROOT)).append('"');
+        json.append(",\"path\":");
+        Json.appendString(json, match.file().toString());
+        if (match.kind() == Match.Kind.FILE || match.kind() == Match.Kind.BINARY) {
+            return json.append('}').toString();
+        }
+        json.append(",\"line\":").append(match.lineNumber());
+        json.append(",\"offset\":").append(match.byteOffset());
+        if (match.start() >= 0) {
+            json.append(",\"start\":").append(match.start());
+            json.append(",\"end\":").append(match.end());
+        }
+        if (match.pattern() != null) {
+            json.append(",\"pattern\":");
+            Json.appendString(json, match.pattern());
+        }
+        json.append(",\"text\":");
+        Json.appendString(json, match.text());
+        return json.append('}').toString();
+    }
+
+    // Warnings go to stderr so stdout stays parseable
+    private record JsonOutput(PrintStream out) implements SearchListener {
+
+        @Override
+        public synchronized void onMatch(Match match) {
+            if (match.kind() != Match.Kind.SEPARATOR) {
+                out.println(toJson(match));
+            }
+        }
+
+        @Override
+        public void onWarning(String message) {
+            System.err.println("WARNING: " + message);
+        }
+    }
+
+    private record TextOutput(PrintStream out, boolean verbose) implements SearchListener {
+
+        @Override
+        public synchronized void onMatch(Match match) {
+            out.println(match.format(verbose));
+        }
+
+        @Override
+        public void onWarning(String message) {
+            System.err.println("WARNING: " + message);
+        }
+    }
+}
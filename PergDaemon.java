@@ -0,0 +1,409 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Long-running search process for perg-cli and the GUI. Between searches it keeps
+// the JIT-compiled scanners, compiled matchers, open trigram indexes (whose
+// watchers keep folder listings current) and the result cache, so a repeated
+// search starts warm.
+//
+// Listens on localhost only. POST /search takes {"args":[...],"dir":...,
+// "files":[...]} with absolute paths and streams back the JSON lines perg-cli
+// prints, after a {"type":"started","id":N} line and with separator and
+// heartbeat lines mixed in. POST /cancel?id=N stops a search, POST /shutdown
+// stops the daemon. Every request carries the token the daemon writes, with its
+// port, to ~/.perg/daemon, which only its owner can read.
+//
+// At most SLOTS searches run at once; the rest wait, taking turns between
+// clients so one user's burst of searches cannot starve another's.
+final class PergDaemon {
+
+    static final Path INFO = Path.of(System.getProperty("user.home"), ".perg", "daemon");
+    static final String TOKEN_HEADER = "X-Perg-Token";
+    static final String CLIENT_HEADER = "X-Perg-Client";
+    private static final int MATCHERS = 64;
+    private static final long FLUSH_MILLIS = 100;
+    // An idle search sends {"type":"heartbeat"} this often, which is how a client
+    // that went away is noticed when there is nothing else to send
+    private static final long HEARTBEAT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final String token;
+    private final long cacheBytes;
+    private final boolean diskCache;
+    private final FairScheduler scheduler;
+    private final Map<Long, SearchEngine> active = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "perg-flush");
+        t.setDaemon(true);
+        return t;
+    });
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    // Compiled matchers by SearchOptions.matchKey(), least recently used first
+    private final LinkedHashMap<String, LineMatcher> matchers = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LineMatcher> eldest) {
+            return size() > MATCHERS;
+        }
+    };
+
+    private PergDaemon(long cacheBytes, boolean diskCache, int slots) {
+        byte[] secret = new byte[16];
+        new SecureRandom().nextBytes(secret);
+        this.token = HexFormat.of().formatHex(secret);
+        this.cacheBytes = cacheBytes;
+        this.diskCache = diskCache;
+        this.scheduler = new FairScheduler(slots);
+    }
+
+    static final String USAGE =
+        "Usage: perg-cli --daemon [--port N] [--slots N] [--cache MB] [--disk-cache]\n" +
+        "    --port N                    Port on localhost (default: any free port)\n" +
+        "    --slots N                   Searches run at once (default: half the cores)\n" +
+        "    --cache MB                  Result cache budget (default: " + (ResultCache.DEFAULT_BYTES >> 20) + ")\n" +
+        "    --disk-cache                Keep evicted cached results under ~/.perg/cache\n";
+
+    // Serves until POST /shutdown or the process is killed
+    static int run(List<String> args) throws IOException, InterruptedException {
+        int port = 0;
+        int slots = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        long cacheBytes = ResultCache.DEFAULT_BYTES;
+        boolean diskCache = false;
+        try {
+            for (int i = 0; i < args.size(); i++) {
+                switch (args.get(i)) {
+                    case "--port" -> port = Integer.parseInt(args.get(++i));
+                    case "--slots" -> slots = Math.max(1, Integer.parseInt(args.get(++i)));
+                    case "--cache" -> cacheBytes = Long.parseLong(args.get(++i)) << 20;
+                    case "--disk-cache" -> diskCache = true;
+                    default -> throw new IllegalArgumentException("Unknown daemon option: " + args.get(i));
+                }
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            System.err.println("ERROR: Invalid daemon options.");
+            System.err.print(USAGE);
+            return 2;
+        } catch (IllegalArgumentException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            System.err.print(USAGE);
+            return 2;
+        }
+
+        PergDaemon daemon = new PergDaemon(cacheBytes, diskCache, slots);
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 64);
+        ExecutorService handlers = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "perg-request");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(handlers);
+        server.createContext("/", daemon::handle);
+        server.start();
+        int bound = server.getAddress().getPort();
+        daemon.writeInfo(bound);
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::deleteInfo));
+        System.err.println("perg daemon listening on 127.0.0.1:" + bound);
+
+        daemon.stopped.await();
+        daemon.active.values().forEach(SearchEngine::cancel);
+        server.stop(1);
+        handlers.shutdownNow();
+        daemon.deleteInfo();
+        TrigramIndex.closeAll();
+        return 0;
+    }
+
+    private void writeInfo(int port) throws IOException {
+        Files.createDirectories(INFO.getParent());
+        Path tmp = INFO.resolveSibling("daemon.tmp");
+        Files.deleteIfExists(tmp);
+        Files.createFile(tmp);
+        try {
+            Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system; the user's profile folder is private anyway
+        }
+        Files.writeString(tmp, port + " " + token + " " + ProcessHandle.current().pid() + "\n");
+        Files.move(tmp, INFO, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Only removes the file if it still describes this daemon
+    private void deleteInfo() {
+        try {
+            if (Files.exists(INFO) && Files.readString(INFO).contains(token)) Files.delete(INFO);
+        } catch (IOException e) {
+            // Clients treat a stale file as "no daemon"
+        }
+    }
+
+    // Compared in constant time, so how long a refusal takes says nothing about
+    // how much of the token was right
+    private boolean hasToken(HttpExchange exchange) {
+        String sent = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+        return sent != null && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+            sent.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!hasToken(exchange)) {
+                reply(exchange, 403, "{\"type\":\"error\",\"message\":\"Bad token\"}");
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            switch (path) {
+                case "/ping" -> reply(exchange, 200, "{\"type\":\"pong\"}");
+                case "/search" -> search(exchange);
+                case "/cancel" -> {
+                    String query = exchange.getRequestURI().getQuery();
+                    SearchEngine engine = null;
+                    if (query != null && query.startsWith("id=")) {
+                        try {
+                            engine = active.get(Long.parseLong(query.substring(3)));
+                        } catch (NumberFormatException e) {
+                            // Unknown id
+                        }
+                    }
+                    if (engine != null) engine.cancel();
+                    reply(exchange, engine != null ? 200 : 404, "{\"type\":\"cancel\"}");
+                }
+                case "/shutdown" -> {
+                    reply(exchange, 200, "{\"type\":\"shutdown\"}");
+                    stopped.countDown();
+                }
+                default -> reply(exchange, 404, "{\"type\":\"error\",\"message\":\"No such endpoint\"}");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void search(HttpExchange exchange) throws IOException {
+        SearchOptions options;
+        Path dir;
+        List<Path> files = new ArrayList<>();
+        try {
+            Map<String, Object> request = Json.parseObject(
+                new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            options = SearchOptions.parse(strings(request.get("args")));
+            dir = Path.of(request.get("dir") instanceof String d ? d : System.getProperty("user.dir"));
+            for (String file : strings(request.get("files"))) files.add(Path.of(file));
+        } catch (IllegalArgumentException e) {
+            reply(exchange, 400, error(e.getMessage()));
+            return;
+        }
+        // The daemon's own cache settings win, so every search shares one budget
+        options.cacheBytes = cacheBytes;
+        options.diskCache = diskCache;
+
+        String client = exchange.getRequestHeaders().getFirst(CLIENT_HEADER);
+        try {
+            scheduler.acquire(client != null ? client : exchange.getRemoteAddress().toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        long id = ids.incrementAndGet();
+        ScheduledFuture<?> flushing = null;
+        try {
+            // An even share of the cores among the searches running now
+            int cores = Runtime.getRuntime().availableProcessors();
+            options.parallelism = Math.min(options.parallelism, Math.max(1, cores / scheduler.running()));
+            SearchEngine engine;
+            try {
+                engine = new SearchEngine(options, matcherFor(options));
+            } catch (IllegalArgumentException e) {
+                reply(exchange, 400, error(e.getMessage()));
+                return;
+            }
+            active.put(id, engine);
+
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            PrintStream out = new PrintStream(new BufferedOutputStream(exchange.getResponseBody(), 1 << 16),
+                false, StandardCharsets.UTF_8);
+            out.println("{\"type\":\"started\",\"id\":" + id + "}");
+            // Lines go out as they come, in batches; a client that went away stops the search
+            long[] lastWrite = { System.nanoTime() };
+            flushing = flusher.scheduleAtFixedRate(() -> {
+                synchronized (out) {
+                    if (System.nanoTime() - lastWrite[0] > HEARTBEAT_NANOS) {
+                        out.println("{\"type\":\"heartbeat\"}");
+                        lastWrite[0] = System.nanoTime();
+                    }
+                    out.flush();
+                    if (out.checkError()) engine.cancel();
+                }
+            }, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+
+            SearchListener listener = new SearchListener() {
+                @Override
+                public void onMatch(Match match) {
+                    // Unlike perg-cli's output, separators are sent, so a text client can print them
+                    String line = match.kind() == Match.Kind.SEPARATOR
+                        ? "{\"type\":\"separator\",\"path\":" + Json.string(match.file().toString()) + "}"
+                        : PergCli.toJson(match);
+                    synchronized (out) {
+                        out.println(line);
+                        lastWrite[0] = System.nanoTime();
+                    }
+                }
+
+                @Override
+                public void onWarning(String message) {
+                    synchronized (out) {
+                        out.println("{\"type\":\"warning\",\"message\":" + Json.string(message) + "}");
+                    }
+                }
+            };
+
+            long startTime = System.nanoTime();
+            SearchStats stats;
+            try {
+                if (files.size() == 1) {
+                    stats = engine.searchFile(files.get(0), listener);
+                } else if (!files.isEmpty()) {
+                    stats = engine.searchFiles(files, listener);
+                } else {
+                    stats = engine.searchDirectory(dir, listener);
+                }
+            } catch (IllegalArgumentException e) {
+                synchronized (out) {
+                    out.println(error(e.getMessage()));
+                }
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            synchronized (out) {
+                out.println(PergCli.summary(stats, System.nanoTime() - startTime));
+                out.flush();
+            }
+        } finally {
+            if (flushing != null) flushing.cancel(false);
+            active.remove(id);
+            scheduler.release();
+        }
+    }
+
+    private LineMatcher matcherFor(SearchOptions options) {
+        String key = options.matchKey();
+        synchronized (matchers) {
+            LineMatcher matcher = matchers.get(key);
+            if (matcher != null) return matcher;
+        }
+        LineMatcher matcher = LineMatcher.compile(options);
+        synchronized (matchers) {
+            matchers.put(key, matcher);
+        }
+        return matcher;
+    }
+
+    private static List<String> strings(Object value) {
+        List<String> strings = new ArrayList<>();
+        if (value instanceof List<?> list) {
+            for (Object o : list) {
+                if (!(o instanceof String s)) throw new IllegalArgumentException("Expected a list of strings");
+                strings.add(s);
+            }
+        }
+        return strings;
+    }
+
+    private static String error(String message) {
+        return "{\"type\":\"error\",\"message\":" + Json.string(message) + "}";
+    }
+
+    private static void reply(HttpExchange exchange, int status, String line) throws IOException {
+        byte[] body = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // Admits up to slots holders at once. Waiters queue per client, and clients
+    // are served round robin, each getting one slot per turn.
+    static final class FairScheduler {
+
+        private final int slots;
+        private final LinkedHashMap<String, ArrayDeque<Object>> waiting = new LinkedHashMap<>();
+        private final Map<Object, Boolean> admitted = new IdentityHashMap<>();
+        private int running;
+
+        FairScheduler(int slots) {
+            this.slots = slots;
+        }
+
+        synchronized void acquire(String client) throws InterruptedException {
+            if (running < slots && waiting.isEmpty()) {
+                running++;
+                return;
+            }
+            Object ticket = new Object();
+            waiting.computeIfAbsent(client, c -> new ArrayDeque<>()).add(ticket);
+            try {
+                while (admitted.remove(ticket) == null) wait();
+            } catch (InterruptedException e) {
+                if (admitted.remove(ticket) != null) {
+                    release();
+                } else {
+                    ArrayDeque<Object> queue = waiting.get(client);
+                    if (queue != null && queue.remove(ticket) && queue.isEmpty()) waiting.remove(client);
+                }
+                throw e;
+            }
+        }
+
+        synchronized void release() {
+            running--;
+            while (running < slots && !waiting.isEmpty()) {
+                Iterator<Map.Entry<String, ArrayDeque<Object>>> it = waiting.entrySet().iterator();
+                Map.Entry<String, ArrayDeque<Object>> next = it.next();
+                it.remove();
+                admitted.put(next.getValue().poll(), Boolean.TRUE);
+                running++;
+                // Back of the line for this client's next search
+                if (!next.getValue().isEmpty()) waiting.put(next.getKey(), next.getValue());
+            }
+            notifyAll();
+        }
+
+        synchronized int running() {
+            return Math.max(1, running);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Pulls literal runs out of a regex that every match is guaranteed to contain.
+// Conservative: anything it cannot prove required (groups, classes, optional
+// atoms) just ends the current run. Alternation at the top level splits the
+// regex into alternatives, each with its own literals.
+final class RegexAnalyzer {
+
+    // Shorter literals are too common to be worth a scan of their own
+    static final int MIN_PREFILTER = 2;
+
+    private RegexAnalyzer() {
+    }
+
+    // Literals every match contains; empty when the regex has top-level alternation
+    static List<String> requiredLiterals(String regex) {
+        List<String> literals = new ArrayList<>();
+        if (alternativesOf(regex).size() > 1 || hasInlineFlags(regex) || regex.contains("\\Q")) {
+            return literals;
+        }
+
+        StringBuilder run = new StringBuilder();
+        int n = regex.length();
+        int i = 0;
+        while (i < n) {
+            // By code point, so a quantifier after a supplementary char makes
+            // both of its surrogates optional, not just the low one
+            int c = regex.codePointAt(i);
+            String atom = null;
+            int next = i + Character.charCount(c);
+
+            switch (c) {
+                case '\\' -> {
+                    if (i + 1 < n) {
+                        int e = regex.codePointAt(i + 1);
+                        // \d, \w, \b, \x41, \1 ... are classes, anchors or codes, not literals
+                        if (Character.isLetterOrDigit(e)) {
+                            next = skipEscape(regex, i + 1);
+                        } else {
+                            atom = Character.toString(e);
+                            next = i + 1 + Character.charCount(e);
+                        }
+                    }
+                }
+                case '[' -> next = skipClass(regex, i);
+                case '(' -> next = skipGroup(regex, i);
+                case '.', '^', '$', '*', '+', '?', '{', ')' -> {
+                }
+                default -> atom = Character.toString(c);
+            }
+
+            char q = next < n ? regex.charAt(next) : 0;
+            if (q == '*' || q == '?' || q == '{') {
+                // Optional or counted atom: not provably required
+                atom = null;
+                next = skipQuantifier(regex, next);
+            } else if (q == '+') {
+                if (atom != null) run.append(atom);
+                atom = null;
+                flush(run, literals);
+                next = skipQuantifier(regex, next);
+            }
+
+            if (atom != null) {
+                run.append(atom);
+            } else {
+                flush(run, literals);
+            }
+            i = next;
+        }
+        flush(run, literals);
+        return literals;
+    }
+
+    // The required literals of each top-level alternative: every match contains
+    // all the literals of at least one list. null when some alternative has none,
+    // so nothing is required.
+    static List<List<String>> alternatives(String regex) {
+        if (hasInlineFlags(regex) || regex.contains("\\Q")) return null;
+        List<List<String>> alternatives = new ArrayList<>();
+        for (String alternative : alternativesOf(regex)) {
+            List<String> literals = requiredLiterals(alternative);
+            if (literals.isEmpty()) return null;
+            alternatives.add(literals);
+        }
+        return alternatives;
+    }
+
+    // Literals one of which every match contains, to search the bytes of a file
+    // for before the regex runs: the longest usable literal of each alternative.
+    // Empty when some alternative has none of at least MIN_PREFILTER chars.
+    static List<String> prefilter(String regex, boolean caseSensitive) {
+        List<List<String>> alternatives = alternatives(regex);
+        if (alternatives == null) return List.of();
+        List<String> prefilter = new ArrayList<>();
+        for (List<String> literals : alternatives) {
+            String best = "";
+            for (String literal : literals) {
+                for (String run : caseSafe(literal, caseSensitive)) {
+                    if (run.length() > best.length()) best = run;
+                }
+            }
+            if (best.length() < MIN_PREFILTER) return List.of();
+            prefilter.add(best);
+        }
+        return prefilter;
+    }
+
+    // The parts of literal that ASCII case folding finds wherever the regex
+    // would. Ignoring case, Pattern also matches non-ASCII letters that fold to
+    // i, k and s (dotless i, the Kelvin sign, long s), so those end a run too.
+    static List<String> caseSafe(String literal, boolean caseSensitive) {
+        if (caseSensitive) return List.of(literal);
+        List<String> runs = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        for (int i = 0; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if (c < 0x80 && "iksIKS".indexOf(c) < 0) {
+                run.append(c);
+            } else {
+                flush(run, runs);
+            }
+        }
+        flush(run, runs);
+        return runs;
+    }
+
+    // Splits at each '|' outside groups, classes and escapes
+    private static List<String> alternativesOf(String regex) {
+        List<String> alternatives = new ArrayList<>();
+        int start = 0;
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+            } else if (c == '(') {
+                i = skipGroup(regex, i);
+            } else {
+                if (c == '|') {
+                    alternatives.add(regex.substring(start, i));
+                    start = i + 1;
+                }
+                i++;
+            }
+        }
+        alternatives.add(regex.substring(start));
+        return alternatives;
+    }
+
+    // (?x) drops whitespace and (?i) folds case, which changes what a literal means
+    private static boolean hasInlineFlags(String regex) {
+        for (int i = regex.indexOf("(?"); i >= 0; i = regex.indexOf("(?", i + 1)) {
+            if (i + 2 < regex.length()) {
+                char c = regex.charAt(i + 2);
+                if (Character.isLetter(c) || c == '-') return true;
+            }
+        }
+        return false;
+    }
+
+    private static void flush(StringBuilder run, List<String> literals) {
+        if (run.length() > 0) {
+            literals.add(run.toString());
+            run.setLength(0);
+        }
+    }
+
+    // i points at the letter or digit after the backslash
+    private static int skipEscape(String regex, int i) {
+        char e = regex.charAt(i);
+        int j = i + 1;
+        switch (e) {
+            case 'x', 'p', 'P', 'N' -> {
+                if (j < regex.length() && regex.charAt(j) == '{') {
+                    while (j < regex.length() && regex.charAt(j) != '}') j++;
+                    return j + 1;
+                }
+                return Math.min(regex.length(), j + (e == 'x' ? 2 : 1));
+            }
+            case 'u' -> {
+                return Math.min(regex.length(), j + 4);
+            }
+            case 'c' -> {
+                return Math.min(regex.length(), j + 1);
+            }
+            case 'k' -> {
+                while (j < regex.length() && regex.charAt(j) != '>') j++;
+                return j + 1;
+            }
+            default -> {
+                if (Character.isDigit(e)) {
+                    while (j < regex.length() && Character.isDigit(regex.charAt(j))) j++;
+                }
+                return j;
+            }
+        }
+    }
+
+    private static int skipClass(String regex, int i) {
+        int j = i + 1;
+        if (j < regex.length() && regex.charAt(j) == '^') j++;
+        if (j < regex.length() && regex.charAt(j) == ']') j++;
+        int depth = 1;
+        while (j < regex.length() && depth > 0) {
+            char c = regex.charAt(j);
+            if (c == '\\') j++;
+            else if (c == '[') depth++;
+            else if (c == ']') depth--;
+            j++;
+        }
+        return j;
+    }
+
+    private static int skipGroup(String regex, int i) {
+        int depth = 0;
+        int j = i;
+        while (j < regex.length()) {
+            char c = regex.charAt(j);
+            if (c == '\\') j++;
+            else if (c == '[') {
+                j = skipClass(regex, j);
+                continue;
+            } else if (c == '(') depth++;
+            else if (c == ')' && --depth == 0) return j + 1;
+            j++;
+        }
+        return j;
+    }
+
+    private static int skipQuantifier(String regex, int i) {
+        int j = i;
+        if (regex.charAt(j) == '{') {
+            while (j < regex.length() && regex.charAt(j) != '}') j++;
+        }
+        j++;
+        // Lazy or possessive suffix
+        if (j < regex.length() && (regex.charAt(j) == '?' || regex.charAt(j) == '+')) j++;
+        return j;
+    }
+}
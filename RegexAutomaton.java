@@ -0,0 +1,685 @@
+package org.example;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+// Decides in linear time whether a line can match a regex, for regexes that have
+// no literal to search for first (see RegexAnalyzer.prefilter). Pattern only has
+// to run on the lines this accepts, so a regex that backtracks badly on lines it
+// does not match costs one pass over each of them.
+//
+// The regex is compiled to a Thompson NFA over code points and run as a DFA
+// whose states are built as the input needs them, per thread. It accepts every
+// line Pattern finds a match in, and may accept a few more: word boundaries and
+// lookaround always pass, backreferences match any text, and classes it cannot
+// model exactly match any character. compile() returns null for what it does
+// not handle at all (inline flags, \X, named characters).
+final class RegexAutomaton {
+
+    private static final int CHAR = 0;
+    private static final int SPLIT = 1;
+    private static final int JUMP = 2;
+    // ^: passes only at the start of the line
+    private static final int BOL = 3;
+    // $: passes only at the end of the line, or before a final line terminator
+    private static final int EOL = 4;
+    private static final int MATCH = 5;
+
+    private static final int MAX_PROGRAM = 20_000;
+    private static final int MAX_REPEAT = 1_000;
+    // Built DFA states kept per thread before the cache starts over
+    private static final int MAX_STATES = 4_096;
+
+    private static final IntPredicate ANY = cp -> true;
+    // What '.' does not match without DOTALL or UNIX_LINES
+    private static final IntPredicate TERMINATOR =
+        cp -> cp == '\n' || cp == '\r' || cp == 0x85 || cp == 0x2028 || cp == 0x2029;
+
+    private final int[] op;
+    private final int[] arg;
+    private final int[] alt;
+    private final IntPredicate[] sets;
+    private final ThreadLocal<Dfa> dfa = ThreadLocal.withInitial(Dfa::new);
+
+    private RegexAutomaton(Program program) {
+        int n = program.op.size();
+        op = new int[n];
+        arg = new int[n];
+        alt = new int[n];
+        for (int i = 0; i < n; i++) {
+            op[i] = program.op.get(i);
+            arg[i] = program.arg.get(i);
+            alt[i] = program.alt.get(i);
+        }
+        sets = program.sets.toArray(new IntPredicate[0]);
+    }
+
+    // null when the regex uses something this cannot stand in for
+    static RegexAutomaton compile(String regex, boolean caseSensitive) {
+        try {
+            Parser parser = new Parser(regex, caseSensitive);
+            Node node = parser.parse();
+            Program program = new Program();
+            program.emit(node);
+            program.add(MATCH, 0, 0);
+            return new RegexAutomaton(program);
+        } catch (Unsupported e) {
+            return null;
+        }
+    }
+
+    // False only when Pattern would find no match in line
+    boolean mayMatch(CharSequence line) {
+        return dfa.get().run(line);
+    }
+
+    // ---- Parsing ----
+
+    private sealed interface Node permits Chars, Seq, Alt, Repeat, Assert {}
+
+    private record Chars(IntPredicate set) implements Node {}
+
+    private record Seq(List<Node> nodes) implements Node {}
+
+    private record Alt(List<Node> nodes) implements Node {}
+
+    // max < 0 for no upper bound
+    private record Repeat(Node node, int min, int max) implements Node {}
+
+    // BOL or EOL
+    private record Assert(int op) implements Node {}
+
+    private static final Node EMPTY = new Seq(List.of());
+
+    // A character class, and whether it matches exactly what Pattern's does;
+    // negating an approximate class would leave out characters Pattern matches
+    private record CharClass(IntPredicate set, boolean exact) {
+
+        CharClass or(CharClass other) {
+            IntPredicate a = set;
+            IntPredicate b = other.set;
+            return new CharClass(cp -> a.test(cp) || b.test(cp), exact && other.exact);
+        }
+
+        CharClass negate() {
+            return exact ? new CharClass(set.negate(), true) : new CharClass(ANY, false);
+        }
+    }
+
+    private static final class Unsupported extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final class Parser {
+
+        private final int[] cps;
+        private final boolean caseSensitive;
+        private int i;
+
+        Parser(String regex, boolean caseSensitive) {
+            this.cps = regex.codePoints().toArray();
+            this.caseSensitive = caseSensitive;
+        }
+
+        Node parse() {
+            Node node = alternation();
+            if (i != cps.length) throw new Unsupported();
+            return node;
+        }
+
+        private Node alternation() {
+            List<Node> alternatives = new ArrayList<>();
+            alternatives.add(sequence());
+            while (more() && peek() == '|') {
+                i++;
+                alternatives.add(sequence());
+            }
+            return alternatives.size() == 1 ? alternatives.get(0) : new Alt(alternatives);
+        }
+
+        private Node sequence() {
+            List<Node> nodes = new ArrayList<>();
+            while (more() && peek() != '|' && peek() != ')') {
+                if (peek() == '\\' && i + 1 < cps.length && cps[i + 1] == 'Q') {
+                    // A quantifier after \Q...\E applies to the last quoted character
+                    i += 2;
+                    List<Integer> quoted = quoted();
+                    if (quoted.isEmpty()) throw new Unsupported();
+                    for (int k = 0; k < quoted.size() - 1; k++) nodes.add(literal(quoted.get(k)));
+                    nodes.add(quantified(literal(quoted.get(quoted.size() - 1))));
+                    continue;
+                }
+                nodes.add(quantified(atom()));
+            }
+            return nodes.size() == 1 ? nodes.get(0) : new Seq(nodes);
+        }
+
+        private Node quantified(Node atom) {
+            if (!more()) return atom;
+            int min;
+            int max;
+            switch (peek()) {
+                case '*' -> {
+                    min = 0;
+                    max = -1;
+                    i++;
+                }
+                case '+' -> {
+                    min = 1;
+                    max = -1;
+                    i++;
+                }
+                case '?' -> {
+                    min = 0;
+                    max = 1;
+                    i++;
+                }
+                case '{' -> {
+                    i++;
+                    min = number();
+                    max = min;
+                    if (more() && peek() == ',') {
+                        i++;
+                        max = more() && peek() != '}' ? number() : -1;
+                    }
+                    expect('}');
+                    if (min > MAX_REPEAT || max > MAX_REPEAT) throw new Unsupported();
+                }
+                default -> {
+                    return atom;
+                }
+            }
+            // Lazy and possessive forms match no line the greedy one does not
+            if (more() && (peek() == '?' || peek() == '+')) i++;
+            return new Repeat(atom, min, max);
+        }
+
+        private Node atom() {
+            int c = cps[i++];
+            return switch (c) {
+                case '(' -> group();
+                case '[' -> chars(charClass());
+                case '.' -> new Chars(TERMINATOR.negate());
+                case '^' -> new Assert(BOL);
+                case '$' -> new Assert(EOL);
+                case '\\' -> escape();
+                default -> literal(c);
+            };
+        }
+
+        private Node group() {
+            boolean lookaround = false;
+            if (more() && peek() == '?') {
+                i++;
+                int c = more() ? cps[i++] : -1;
+                if (c == '=' || c == '!') {
+                    lookaround = true;
+                } else if (c == '<' && more() && (peek() == '=' || peek() == '!')) {
+                    i++;
+                    lookaround = true;
+                } else if (c == '<') {
+                    // Named group
+                    while (more() && peek() != '>') i++;
+                    expect('>');
+                } else if (c != ':' && c != '>') {
+                    // Inline flags change how everything after them matches
+                    throw new Unsupported();
+                }
+            }
+            Node inner = alternation();
+            expect(')');
+            // A lookaround consumes nothing; taking it as passing only adds lines
+            return lookaround ? EMPTY : inner;
+        }
+
+        private Node escape() {
+            if (!more()) throw new Unsupported();
+            int c = cps[i++];
+            switch (c) {
+                case 'b', 'B', 'G' -> {
+                    return EMPTY;
+                }
+                case 'A' -> {
+                    return new Assert(BOL);
+                }
+                case 'z', 'Z' -> {
+                    return new Assert(EOL);
+                }
+                case 'k' -> {
+                    while (more() && peek() != '>') i++;
+                    expect('>');
+                    return new Repeat(new Chars(ANY), 0, -1);
+                }
+                default -> {
+                    if (c >= '1' && c <= '9') {
+                        // A backreference matches what its group did, which is some text
+                        while (more() && Character.isDigit(peek())) i++;
+                        return new Repeat(new Chars(ANY), 0, -1);
+                    }
+                    i--;
+                    CharClass set = escapedClass();
+                    return set != null ? chars(set) : literal(escapedChar());
+                }
+            }
+        }
+
+        // \d, \s, \p{...} and the like, or null for an escaped character
+        private CharClass escapedClass() {
+            int c = cps[i];
+            CharClass set = switch (c) {
+                case 'd', 'D' -> exact(cp -> cp >= '0' && cp <= '9');
+                case 's', 'S' -> exact(cp -> cp == ' ' || (cp >= '\t' && cp <= '\r'));
+                case 'w', 'W' -> exact(cp -> cp == '_' || (cp >= '0' && cp <= '9') || (cp | 0x20) >= 'a' && (cp | 0x20) <= 'z');
+                case 'h', 'H' -> exact(cp -> cp == ' ' || cp == '\t' || cp == 0xa0 || cp == 0x1680 || cp == 0x180e
+                    || (cp >= 0x2000 && cp <= 0x200a) || cp == 0x202f || cp == 0x205f || cp == 0x3000);
+                case 'v', 'V' -> exact(cp -> (cp >= '\n' && cp <= '\r') || cp == 0x85 || cp == 0x2028 || cp == 0x2029);
+                // Lines hold no '\n', so \R is a single character here
+                case 'R' -> exact(cp -> (cp >= '\n' && cp <= '\r') || cp == 0x85 || cp == 0x2028 || cp == 0x2029);
+                case 'p', 'P' -> new CharClass(ANY, false);
+                case 'X', 'N' -> throw new Unsupported();
+                default -> null;
+            };
+            if (set == null) return null;
+            i++;
+            if (c == 'p' || c == 'P') {
+                if (more() && peek() == '{') {
+                    while (more() && peek() != '}') i++;
+                    expect('}');
+                } else {
+                    i++;
+                }
+                return set;
+            }
+            return Character.isUpperCase(c) && c != 'R' ? set.negate() : set;
+        }
+
+        // The character after a backslash, which is not a class
+        private int escapedChar() {
+            int c = cps[i++];
+            return switch (c) {
+                case 't' -> '\t';
+                case 'n' -> '\n';
+                case 'r' -> '\r';
+                case 'f' -> '\f';
+                case 'a' -> 0x07;
+                case 'e' -> 0x1b;
+                case 'c' -> {
+                    if (!more()) throw new Unsupported();
+                    yield cps[i++] ^ 64;
+                }
+                case '0' -> {
+                    int value = 0;
+                    for (int n = 0; n < 3 && more() && peek() >= '0' && peek() <= '7'; n++) {
+                        int next = value * 8 + (peek() - '0');
+                        if (next > 0377) break;
+                        value = next;
+                        i++;
+                    }
+                    yield value;
+                }
+                case 'x' -> {
+                    if (more() && peek() == '{') {
+                        i++;
+                        int start = i;
+                        while (more() && peek() != '}') i++;
+                        int value = hex(start, i);
+                        expect('}');
+                        yield value;
+                    }
+                    i += 2;
+                    yield hex(i - 2, i);
+                }
+                case 'u' -> {
+                    i += 4;
+                    int value = hex(i - 4, i);
+                    // Pattern joins an escaped surrogate pair into one code point
+                    if (Character.isHighSurrogate((char) value) && i + 6 <= cps.length
+                            && cps[i] == '\\' && cps[i + 1] == 'u') {
+                        int low = hex(i + 2, i + 6);
+                        if (Character.isLowSurrogate((char) low)) {
+                            i += 6;
+                            value = Character.toCodePoint((char) value, (char) low);
+                        }
+                    }
+                    yield value;
+                }
+                default -> {
+                    if (Character.isLetterOrDigit(c)) throw new Unsupported();
+                    yield c;
+                }
+            };
+        }
+
+        private CharClass charClass() {
+            boolean negate = more() && peek() == '^';
+            if (negate) i++;
+            CharClass set = null;
+            boolean first = true;
+            while (true) {
+                if (!more()) throw new Unsupported();
+                int c = peek();
+                if (c == ']' && !first) {
+                    i++;
+                    break;
+                }
+                first = false;
+                CharClass item;
+                if (c == '[') {
+                    i++;
+                    item = charClass();
+                } else if (c == '&' && i + 1 < cps.length && cps[i + 1] == '&') {
+                    // An intersection matches no more than its left side
+                    i += 2;
+                    if (more() && peek() == '[') {
+                        i++;
+                        charClass();
+                    } else {
+                        skipRest();
+                    }
+                    if (set == null) set = new CharClass(ANY, false);
+                    set = new CharClass(set.set(), false);
+                    continue;
+                } else if (c == '\\' && i + 1 < cps.length && cps[i + 1] == 'Q') {
+                    i += 2;
+                    List<Integer> quoted = quoted();
+                    item = exact(quoted::contains);
+                } else {
+                    int from;
+                    if (c == '\\') {
+                        i++;
+                        if (!more()) throw new Unsupported();
+                        CharClass escaped = escapedClass();
+                        if (escaped != null) {
+                            set = set == null ? escaped : set.or(escaped);
+                            continue;
+                        }
+                        from = escapedChar();
+                    } else {
+                        from = cps[i++];
+                    }
+                    int to = from;
+                    if (more() && peek() == '-' && i + 1 < cps.length && cps[i + 1] != ']') {
+                        i++;
+                        int end = cps[i++];
+                        if (end == '\\') {
+                            if (!more()) throw new Unsupported();
+                            end = escapedChar();
+                        } else if (end == '[') {
+                            throw new Unsupported();
+                        }
+                        to = end;
+                    }
+                    int lo = from;
+                    int hi = to;
+                    item = exact(cp -> cp >= lo && cp <= hi);
+                }
+                set = set == null ? item : set.or(item);
+            }
+            if (set == null) set = exact(cp -> false);
+            return negate ? set.negate() : set;
+        }
+
+        // The characters up to \E, or to the end; i is just past \Q
+        private List<Integer> quoted() {
+            List<Integer> quoted = new ArrayList<>();
+            while (more() && !(peek() == '\\' && i + 1 < cps.length && cps[i + 1] == 'E')) quoted.add(cps[i++]);
+            if (more()) i += 2;
+            return quoted;
+        }
+
+        // The rest of an intersection written without brackets, up to the class's ']'
+        private void skipRest() {
+            while (more() && peek() != ']') {
+                if (peek() == '\\') i++;
+                else if (peek() == '[') {
+                    i++;
+                    charClass();
+                    continue;
+                }
+                i++;
+            }
+        }
+
+        private Node literal(int c) {
+            if (caseSensitive) return new Chars(cp -> cp == c);
+            int folded = fold(c);
+            return new Chars(cp -> cp == c || fold(cp) == folded);
+        }
+
+        // Ignoring case, a character also matches the other cases of itself,
+        // which is what Pattern does with UNICODE_CASE, give or take a few extras
+        private Node chars(CharClass set) {
+            IntPredicate p = set.set();
+            if (caseSensitive) return new Chars(p);
+            return new Chars(cp -> p.test(cp) || p.test(Character.toUpperCase(cp)) || p.test(Character.toLowerCase(cp))
+                || p.test(fold(cp)) || p.test(Character.toUpperCase(Character.toLowerCase(cp))));
+        }
+
+        // How Pattern compares single characters with UNICODE_CASE
+        private static int fold(int cp) {
+            return Character.toLowerCase(Character.toUpperCase(cp));
+        }
+
+        private static CharClass exact(IntPredicate set) {
+            return new CharClass(set, true);
+        }
+
+        private int number() {
+            int start = i;
+            long value = 0;
+            while (more() && peek() >= '0' && peek() <= '9') {
+                value = Math.min(Integer.MAX_VALUE, value * 10 + (cps[i++] - '0'));
+            }
+            if (i == start) throw new Unsupported();
+            return (int) value;
+        }
+
+        private int hex(int from, int to) {
+            if (to > cps.length || from >= to) throw new Unsupported();
+            int value = 0;
+            for (int k = from; k < to; k++) {
+                int d = Character.digit(cps[k], 16);
+                if (d < 0) throw new Unsupported();
+                value = value * 16 + d;
+            }
+            return value;
+        }
+
+        private void expect(int c) {
+            if (!more() || cps[i] != c) throw new Unsupported();
+            i++;
+        }
+
+        private boolean more() {
+            return i < cps.length;
+        }
+
+        private int peek() {
+            return cps[i];
+        }
+    }
+
+    // ---- Compiling ----
+
+    private static final class Program {
+
+        final List<Integer> op = new ArrayList<>();
+        final List<Integer> arg = new ArrayList<>();
+        final List<Integer> alt = new ArrayList<>();
+        final List<IntPredicate> sets = new ArrayList<>();
+
+        int add(int code, int a, int b) {
+            if (op.size() >= MAX_PROGRAM) throw new Unsupported();
+            op.add(code);
+            arg.add(a);
+            alt.add(b);
+            return op.size() - 1;
+        }
+
+        void emit(Node node) {
+            if (node instanceof Chars c) {
+                sets.add(c.set());
+                add(CHAR, sets.size() - 1, 0);
+            } else if (node instanceof Seq s) {
+                s.nodes().forEach(this::emit);
+            } else if (node instanceof Alt a) {
+                List<Integer> jumps = new ArrayList<>();
+                for (int k = 0; k < a.nodes().size() - 1; k++) {
+                    int split = add(SPLIT, op.size() + 1, 0);
+                    emit(a.nodes().get(k));
+                    jumps.add(add(JUMP, 0, 0));
+                    alt.set(split, op.size());
+                }
+                emit(a.nodes().get(a.nodes().size() - 1));
+                for (int jump : jumps) arg.set(jump, op.size());
+            } else if (node instanceof Repeat r) {
+                for (int k = 0; k < r.min(); k++) emit(r.node());
+                if (r.max() < 0) {
+                    int split = add(SPLIT, op.size() + 1, 0);
+                    emit(r.node());
+                    add(JUMP, split, 0);
+                    alt.set(split, op.size());
+                } else {
+                    List<Integer> splits = new ArrayList<>();
+                    for (int k = r.min(); k < r.max(); k++) {
+                        splits.add(add(SPLIT, op.size() + 1, 0));
+                        emit(r.node());
+                    }
+                    for (int split : splits) alt.set(split, op.size());
+                }
+            } else if (node instanceof Assert a) {
+                add(a.op(), 0, 0);
+            }
+        }
+    }
+
+    // ---- Running ----
+
+    // One thread's DFA: each state is the set of NFA instructions that can
+    // consume the next character, built the first time the input leads there
+    private final class Dfa {
+
+        private final Map<IntBuffer, State> states = new HashMap<>();
+        // Every instruction is expanded once and pushes at most two more
+        private final int[] stack = new int[3 * op.length + 1];
+        private final boolean[] seen = new boolean[op.length];
+        private State first;
+
+        private final class State {
+
+            final int[] pcs;
+            final boolean match;
+            final State[] ascii = new State[128];
+            Map<Integer, State> other;
+            // This state with $ passing, once needed
+            State atEnd;
+
+            State(int[] pcs) {
+                this.pcs = pcs;
+                boolean m = false;
+                for (int pc : pcs) m |= op[pc] == MATCH;
+                this.match = m;
+            }
+        }
+
+        boolean run(CharSequence line) {
+            if (first == null) first = state(closure(new int[] { 0 }, 1, true, false));
+            State s = first;
+            int n = line.length();
+            int i = 0;
+            while (!s.match) {
+                if (i >= n) return atEnd(s, n == 0).match;
+                int cp = Character.codePointAt(line, i);
+                boolean start = i == 0;
+                i += Character.charCount(cp);
+                // $ also passes just before a final line terminator
+                if (i == n && TERMINATOR.test(cp)) {
+                    s = atEnd(s, start);
+                    if (s.match) return true;
+                }
+                s = next(s, cp);
+            }
+            return true;
+        }
+
+        private State next(State s, int cp) {
+            State next = cp < 128 ? s.ascii[cp] : s.other == null ? null : s.other.get(cp);
+            if (next != null) return next;
+
+            int[] moved = new int[s.pcs.length + 1];
+            int count = 0;
+            for (int pc : s.pcs) {
+                if (op[pc] == CHAR && sets[arg[pc]].test(cp)) moved[count++] = pc + 1;
+            }
+            // A match may also start at the next position
+            moved[count++] = 0;
+            if (states.size() > MAX_STATES) {
+                // Start over; the states of this line are dropped once it is done
+                states.clear();
+                first = null;
+            }
+            next = state(closure(moved, count, false, false));
+            if (cp < 128) {
+                s.ascii[cp] = next;
+            } else {
+                if (s.other == null) s.other = new HashMap<>();
+                s.other.put(cp, next);
+            }
+            return next;
+        }
+
+        // s where $ passes; at the start of the line ^ passes as well
+        private State atEnd(State s, boolean atStart) {
+            if (atStart) return state(closure(s.pcs, s.pcs.length, true, true));
+            if (s.atEnd == null) s.atEnd = state(closure(s.pcs, s.pcs.length, false, true));
+            return s.atEnd;
+        }
+
+        private State state(int[] pcs) {
+            return states.computeIfAbsent(IntBuffer.wrap(pcs), k -> new State(pcs));
+        }
+
+        // The instructions reachable from pcs without consuming a character,
+        // keeping those that consume one, wait for the end, or match
+        private int[] closure(int[] pcs, int count, boolean atStart, boolean atEnd) {
+            Arrays.fill(seen, false);
+            int[] out = new int[op.length];
+            int n = 0;
+            int top = 0;
+            for (int k = count - 1; k >= 0; k--) stack[top++] = pcs[k];
+            while (top > 0) {
+                int pc = stack[--top];
+                if (seen[pc]) continue;
+                seen[pc] = true;
+                switch (op[pc]) {
+                    case SPLIT -> {
+                        stack[top++] = alt[pc];
+                        stack[top++] = arg[pc];
+                    }
+                    case JUMP -> stack[top++] = arg[pc];
+                    case BOL -> {
+                        if (atStart) stack[top++] = pc + 1;
+                    }
+                    case EOL -> {
+                        if (atEnd) stack[top++] = pc + 1;
+                        else out[n++] = pc;
+                    }
+                    default -> out[n++] = pc;
+                }
+            }
+            int[] result = Arrays.copyOf(out, n);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// Per-file search results, keyed on the file's identity (absolute path, size,
+// mtime) and on everything that changes which lines are reported. Repeating a
+// search only rescans files that changed since the last run. The memory tier is
+// an LRU bounded by an estimated byte budget, backed by an optional disk tier
+// under ~/.perg/cache.
+//
+// Only the memory tier is under the cache's lock. Disk files are read and
+// written by the scan workers that need them, in parallel; a file only appears
+// under its name once it is complete.
+//
+// Searches share the entries but not the settings: each engine works through a
+// View with its own budget and disk tier, so concurrent searches (daemon
+// clients, say) never change each other's.
+final class ResultCache {
+
+    static final long DEFAULT_BYTES = 256L << 20;
+    private static final long DISK_BYTES = 1L << 30;
+    private static final Path DISK_DIR = Path.of(System.getProperty("user.home"), ".perg", "cache");
+    private static final int DISK_MAGIC = 0x50524332;
+    private static final long STALE_TMP = 10 * 60 * 1000;
+    private static final ResultCache SHARED = new ResultCache();
+
+    record Key(String path, long size, long mtime, String query) {}
+
+    record Entry(List<Match> matches, long linesScanned, long matchedLines, long bytes) {}
+
+    private final LinkedHashMap<Key, Entry> memory = new LinkedHashMap<>(256, 0.75f, true);
+    private long used;
+    private final AtomicInteger diskWrites = new AtomicInteger();
+    private final AtomicBoolean pruning = new AtomicBoolean();
+
+    static ResultCache shared() {
+        return SHARED;
+    }
+
+    // The cache as one search uses it: budgetBytes bounds the memory tier
+    // whenever this search adds to it, and useDisk adds the disk tier
+    View view(long budgetBytes, boolean useDisk) {
+        return new View(budgetBytes, useDisk);
+    }
+
+    // null when the file cannot be stat'ed, so it is simply scanned
+    static Key keyFor(Path file, SearchOptions options) {
+        try {
+            Path abs = file.toAbsolutePath().normalize();
+            BasicFileAttributes attrs = Files.readAttributes(abs, BasicFileAttributes.class);
+            return new Key(abs.toString(), attrs.size(), attrs.lastModifiedTime().toMillis(), options.matchKey());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    final class View {
+
+        private final long budget;
+        private final boolean useDisk;
+
+        private View(long budget, boolean useDisk) {
+            this.budget = budget;
+            this.useDisk = useDisk;
+        }
+
+        Entry get(Key key) {
+            synchronized (ResultCache.this) {
+                Entry entry = memory.get(key);
+                if (entry != null) return entry;
+            }
+            Entry entry = useDisk ? readDisk(key) : null;
+            if (entry != null && entry.bytes <= budget / 4) {
+                synchronized (ResultCache.this) {
+                    insert(key, entry, budget);
+                }
+            }
+            return entry;
+        }
+
+        // The disk tier is written through, so a later process can reuse it too
+        void put(Key key, Entry entry) {
+            // One huge result set would flush everything else
+            if (entry.bytes <= budget / 4) {
+                synchronized (ResultCache.this) {
+                    insert(key, entry, budget);
+                }
+            }
+            if (useDisk) writeDisk(key, entry);
+        }
+    }
+
+    // Rough heap cost of keeping a match around
+    static long sizeOf(Match match) {
+        return 96 + 2L * match.text().length();
+    }
+
+    private void insert(Key key, Entry entry, long budget) {
+        Entry old = memory.put(key, entry);
+        if (old != null) used -= old.bytes;
+        used += entry.bytes;
+        Iterator<Map.Entry<Key, Entry>> it = memory.entrySet().iterator();
+        while (used > budget && it.hasNext()) {
+            Map.Entry<Key, Entry> eldest = it.next();
+            used -= eldest.getValue().bytes;
+            it.remove();
+        }
+    }
+
+    private static Path diskPath(Key key) {
+        String name = Integer.toHexString(key.path.hashCode()) + "-" + Integer.toHexString(key.hashCode());
+        return DISK_DIR.resolve(name + ".res");
+    }
+
+    // Replaces whatever is under the name: an older result with a colliding name
+    // would otherwise shadow this one for good
+    private void writeDisk(Key key, Entry entry) {
+        Path target = diskPath(key);
+        Path tmp = null;
+        try {
+            Files.createDirectories(DISK_DIR);
+            // Workers writing the same key each have a file of their own
+            tmp = Files.createTempFile(DISK_DIR, target.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(DISK_MAGIC);
+                writeText(out, key.path);
+                out.writeLong(key.size);
+                out.writeLong(key.mtime);
+                writeText(out, key.query);
+                out.writeLong(entry.linesScanned);
+                out.writeLong(entry.matchedLines);
+                out.writeInt(entry.matches.size());
+                for (Match m : entry.matches) {
+                    out.writeByte(m.kind().ordinal());
+                    out.writeLong(m.lineNumber());
+                    out.writeLong(m.byteOffset());
+                    out.writeInt(m.start());
+                    out.writeInt(m.end());
+                    out.writeBoolean(m.pattern() != null);
+                    if (m.pattern() != null) writeText(out, m.pattern());
+                    writeText(out, m.text());
+                }
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+            // One worker prunes at a time; the others carry on searching
+            if (diskWrites.incrementAndGet() % 64 == 0 && pruning.compareAndSet(false, true)) {
+                try {
+                    pruneDisk();
+                } finally {
+                    pruning.set(false);
+                }
+            }
+        } catch (IOException e) {
+            // The disk tier is best effort
+        } finally {
+            if (tmp != null) deleteQuietly(tmp);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Pruned later, with the rest of the disk tier
+        }
+    }
+
+    // Drops the least recently written files once the disk tier is over budget;
+    // entries for files that have since changed are never read again and age out.
+    // Files still being written are left alone, and ones a process left
+    // half-written are dropped once they are STALE_TMP old.
+    private static void pruneDisk() throws IOException {
+        List<Path> files = new ArrayList<>();
+        long stale = System.currentTimeMillis() - STALE_TMP;
+        try (Stream<Path> list = Files.list(DISK_DIR)) {
+            for (Path f : (Iterable<Path>) list::iterator) {
+                if (f.getFileName().toString().endsWith(".res")) {
+                    files.add(f);
+                } else if (f.toFile().lastModified() < stale) {
+                    deleteQuietly(f);
+                }
+            }
+        }
+        files.sort(Comparator.comparingLong(f -> f.toFile().lastModified()));
+        long total = 0;
+        for (Path f : files) total += f.toFile().length();
+        for (Iterator<Path> it = files.iterator(); total > DISK_BYTES && it.hasNext(); ) {
+            Path f = it.next();
+            total -= f.toFile().length();
+            Files.deleteIfExists(f);
+        }
+    }
+
+    private static Entry readDisk(Key key) {
+        Path source = diskPath(key);
+        if (!Files.exists(source)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source)))) {
+            if (in.readInt() != DISK_MAGIC) return null;
+            Key stored = new Key(readText(in), in.readLong(), in.readLong(), readText(in));
+            if (!stored.equals(key)) return null;
+            long linesScanned = in.readLong();
+            long matchedLines = in.readLong();
+            int count = in.readInt();
+            Path file = Path.of(key.path);
+            Match.Kind[] kinds = Match.Kind.values();
+            List<Match> matches = new ArrayList<>(count);
+            long bytes = 0;
+            for (int i = 0; i < count; i++) {
+                Match.Kind kind = kinds[in.readByte()];
+                long lineNumber = in.readLong();
+                long offset = in.readLong();
+                int start = in.readInt();
+                int end = in.readInt();
+                String pattern = in.readBoolean() ? readText(in) : null;
+                Match m = new Match(file, lineNumber, offset, readText(in), start, end, pattern, kind);
+                bytes += sizeOf(m);
+                matches.add(m);
+            }
+            return new Entry(matches, linesScanned, matchedLines, bytes);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // writeUTF is limited to 64 KB; lines can be longer, and so can the query
+    // of a long -p pattern list
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,149 @@
+package org.example;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableListBase;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Moves rows from search threads into the result list in coalesced batches.
+// Rows go to a MatchStore rather than the heap, and the list reads their text
+// back a page at a time, only for the rows it shows, so a search with millions
+// of matching lines needs no more memory than one with ten.
+final class ResultStream {
+
+    static final int PAGE = 256;
+    static final int PAGES = 16;
+
+    private final MatchStore store;
+    private final Rows rows = new Rows();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean closed;
+    // FX thread time spent adding rows, to tell slow rendering from a slow search
+    private final LongAdder renderNanos = new LongAdder();
+
+    ResultStream() {
+        try {
+            store = new MatchStore();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create the result store", e);
+        }
+    }
+
+    // For a ListView; read on the FX thread only
+    ObservableList<String> rows() {
+        return rows;
+    }
+
+    // --encoding of the search, so lines are shown the way they were matched
+    void setEncoding(Charset encoding) {
+        store.setEncoding(encoding);
+    }
+
+    // Callable from any thread; each line of text becomes one row
+    void append(String text) {
+        if (closed) return;
+        if (text.endsWith("\n")) {
+            text = text.substring(0, text.length() - 1);
+        }
+        try {
+            for (String line : text.split("\n", -1)) store.addText(line);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        publish();
+    }
+
+    // Callable from any thread; keeps where the line is, not the line
+    void append(Match match, boolean verbose) {
+        if (closed) return;
+        try {
+            store.addMatch(match, verbose);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        publish();
+    }
+
+    long renderNanos() {
+        return renderNanos.sum();
+    }
+
+    // Drops everything appended from now on, e.g. by a search that was replaced,
+    // and frees the store
+    void close() {
+        closed = true;
+        store.close();
+    }
+
+    private void publish() {
+        if (Platform.isFxApplicationThread()) {
+            drain();
+        } else if (scheduled.compareAndSet(false, true)) {
+            Platform.runLater(() -> {
+                scheduled.set(false);
+                drain();
+            });
+        }
+    }
+
+    private void drain() {
+        if (closed) return;
+        long t = System.nanoTime();
+        rows.grow(store.size());
+        renderNanos.add(System.nanoTime() - t);
+    }
+
+    // The store as a list. Its size only changes on the FX thread, when drain()
+    // tells the list about rows stored since; pages of text are decoded on demand
+    // and the least recently shown are dropped.
+    private final class Rows extends ObservableListBase<String> {
+
+        private int size;
+        private final Map<Integer, String[]> pages = new LinkedHashMap<>(PAGES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String[]> eldest) {
+                return size() > PAGES;
+            }
+        };
+
+        void grow(int newSize) {
+            if (newSize <= size) return;
+            int from = size;
+            size = newSize;
+            // The last page may have been read before it filled up
+            pages.remove(from / PAGE);
+            beginChange();
+            nextAdd(from, newSize);
+            endChange();
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+            if (closed) return "";
+            String[] page = pages.computeIfAbsent(index / PAGE, this::read);
+            return page[index % PAGE];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        private String[] read(int page) {
+            int from = page * PAGE;
+            String[] texts = new String[Math.min(PAGE, size - from)];
+            for (int i = 0; i < texts.length; i++) texts[i] = store.text(from + i);
+            return texts;
+        }
+    }
+}
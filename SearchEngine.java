@@ -0,0 +1,601 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// In-process replacement for perg.exe
+final class SearchEngine {
+
+    static final int WALK_QUEUE_CAPACITY = 4_096;
+    // Whole-file tasks queued per worker behind the oldest one still running, and
+    // the most bytes of files they may hold between them
+    static final int AHEAD = 4;
+    static final long AHEAD_BYTES = 64L << 20;
+    // Why a search that hit --max-total stopped
+    private static final String MATCH_LIMIT = "match limit reached";
+
+    private final SearchOptions options;
+    private final LineMatcher matcher;
+    private final ResultCache.View cache;
+    private volatile String stopReason;
+    private volatile long deadline = Long.MAX_VALUE;
+    private final AtomicLong firstMatch = new AtomicLong(-1);
+    private final SearchEvent event = new SearchEvent();
+    private long startNanos;
+
+    SearchEngine(SearchOptions options) {
+        this(options, LineMatcher.compile(options));
+    }
+
+    // matcher must have been compiled from options, or from options that match
+    // the same lines (see PergDaemon)
+    SearchEngine(SearchOptions options, LineMatcher matcher) {
+        this.options = options;
+        this.matcher = matcher;
+        cache = options.cacheBytes > 0 ? ResultCache.shared().view(options.cacheBytes, options.diskCache) : null;
+    }
+
+    // A file big enough to split is scanned in chunks on all workers
+    SearchStats searchFile(Path file, SearchListener listener) {
+        SearchStats stats = startSearch();
+        ForkJoinPool pool = newPool();
+        stats.workers = Math.max(1, options.parallelism);
+        try {
+            scanFile(file, totalLimit(listener), stats, pool);
+        } finally {
+            if (pool != null) pool.shutdownNow();
+        }
+        return finishSearch(stats, file);
+    }
+
+    // Callable from any thread: the walker, the scanners and any cached replay stop
+    // at their next check
+    void cancel() {
+        stop("cancelled");
+    }
+
+    boolean stopped() {
+        if (stopReason != null) return true;
+        if (System.nanoTime() > deadline) {
+            stop("time budget reached");
+            return true;
+        }
+        return false;
+    }
+
+    private void stop(String reason) {
+        if (stopReason == null) stopReason = reason;
+    }
+
+    private SearchStats startSearch() {
+        event.begin();
+        startNanos = System.nanoTime();
+        if (options.timeBudgetMillis > 0) {
+            deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(options.timeBudgetMillis);
+        }
+        return new SearchStats();
+    }
+
+    private SearchStats finishSearch(SearchStats stats, Path root) {
+        stats.wallNanos = System.nanoTime() - startNanos;
+        stats.firstMatchNanos = firstMatch.get();
+        stats.stopReason = stopReason;
+        event.end();
+        if (event.shouldCommit()) {
+            event.fill(stats);
+            event.query = options.term != null ? options.term : String.join("|", options.patterns);
+            event.root = root.toString();
+            event.commit();
+        }
+        return stats;
+    }
+
+    // Searches the files on the scan pool; each file's events reach the listener
+    // as one section, in the order the files were given
+    SearchStats searchFiles(List<Path> files, SearchListener listener) throws InterruptedException {
+        SearchStats total = startSearch();
+        Iterator<Path> it = files.iterator();
+        scanScheduled(() -> it.hasNext() && !stopped() ? it.next() : DirectoryWalker.END, null, listener, total, true);
+        return finishSearch(total, files.isEmpty() ? Path.of("") : files.get(0).toAbsolutePath().getParent());
+    }
+
+    // Matches lines an earlier search reported again, without reading their files,
+    // for a term that can only match some of them (see LiveSearch). lines must be
+    // MATCH rows, grouped by file.
+    SearchStats searchLines(List<Match> lines, SearchListener listener) {
+        SearchStats stats = startSearch();
+        stats.workers = 1;
+        SearchListener total = totalLimit(listener);
+        FileLimit limit = null;
+        for (Match line : lines) {
+            if (limit == null || !limit.file.equals(line.file())) {
+                if (stopped()) break;
+                limit = new FileLimit(line.file(), total);
+                stats.filesScanned.increment();
+            }
+            if (limit.done()) continue;
+            stats.linesScanned.increment();
+            LineMatcher.Hit hit = matcher.find(line.text());
+            if (hit == null) continue;
+            stats.matchedLines.increment();
+            limit.onMatch(new Match(line.file(), line.lineNumber(), line.byteOffset(), line.text(),
+                hit.start(), hit.end(), matcher.patternOf(hit), Match.Kind.MATCH));
+        }
+        return finishSearch(stats, lines.isEmpty() ? Path.of("") : lines.get(0).file().toAbsolutePath().getParent());
+    }
+
+    SearchStats searchDirectory(Path dir, SearchListener listener) throws InterruptedException {
+        SearchStats stats = startSearch();
+        if (options.useIndex) {
+            try {
+                searchIndexed(dir, listener, stats);
+                return finishSearch(stats, dir);
+            } catch (IOException e) {
+                listener.onWarning("Cannot update index for " + dir + ", searching without it.");
+            }
+        }
+        searchWalked(dir, listener, stats);
+        return finishSearch(stats, dir);
+    }
+
+    // Scanning starts as soon as the walker finds the first file. Leaving this
+    // method closes the walker, so a stopped search also stops traversal.
+    private void searchWalked(Path dir, SearchListener listener, SearchStats stats) throws InterruptedException {
+        BlockingQueue<Path> queue = new ArrayBlockingQueue<>(WALK_QUEUE_CAPACITY);
+
+        try (DirectoryWalker walker = new DirectoryWalker(options, queue)) {
+            walker.start(dir);
+            scanScheduled(() -> nextFile(queue, stats), walker, listener, stats, false);
+            walker.drainWarnings(listener);
+            stats.discoveryNanos = walker.discoveryNanos();
+            stats.filesSkipped.add(walker.filesExcluded());
+            if (walker.filesFound() == 0) {
+                listener.onWarning("No files found to search.");
+            }
+        }
+    }
+
+    // Only the files the trigram index cannot rule out are scanned
+    private void searchIndexed(Path dir, SearchListener listener, SearchStats stats) throws IOException, InterruptedException {
+        long t = System.nanoTime();
+        // Spelled under dir as given, the same as a walked search reports them
+        Path root = dir.toAbsolutePath().normalize();
+        List<Path> files = TrigramIndex.forDirectory(dir).candidates(options, stats).stream()
+            .map(f -> dir.resolve(root.relativize(f)))
+            .toList();
+        stats.discoveryNanos = System.nanoTime() - t;
+
+        Iterator<Path> it = files.iterator();
+        scanScheduled(() -> it.hasNext() && !stopped() ? it.next() : DirectoryWalker.END, null, listener, stats, false);
+    }
+
+    // Polls so that a stopped search is noticed even while the queue is empty
+    private Path nextFile(BlockingQueue<Path> queue, SearchStats stats) throws InterruptedException {
+        stats.sampleQueue(queue.size());
+        while (!stopped()) {
+            Path file = queue.poll(50, TimeUnit.MILLISECONDS);
+            if (file != null) return file;
+        }
+        return DirectoryWalker.END;
+    }
+
+    // Where scanScheduled gets its files from; DirectoryWalker.END when done
+    private interface FileSource {
+        Path next() throws InterruptedException;
+    }
+
+    // Scans files of any mix of sizes on one work-stealing pool, and hands each
+    // file's events to the listener as one block, in the order source gave them.
+    // A file too small to split is one task; up to AHEAD tasks per worker, or
+    // AHEAD_BYTES, queue behind the oldest, whose block goes out first. A file big enough to split
+    // (see FileScanner.splits) is scanned from here once the blocks before it are
+    // out, and its chunks, sized from the file, keep every worker busy.
+    //
+    // With sections each file's events are framed by onFileStart and onFileDone.
+    private void scanScheduled(FileSource source, DirectoryWalker walker, SearchListener listener,
+                               SearchStats stats, boolean sections) throws InterruptedException {
+        listener = totalLimit(listener);
+        ForkJoinPool pool = newPool();
+        stats.workers = Math.max(1, options.parallelism);
+        Deque<Pending> inFlight = new ArrayDeque<>();
+        long queuedBytes = 0;
+        try {
+            Path file;
+            while ((file = source.next()) != DirectoryWalker.END) {
+                long size = sizeOf(file);
+                if (pool != null && !usesPool(file, size)) {
+                    Path f = file;
+                    inFlight.add(new Pending(pool.submit(() -> {
+                        List<Consumer<SearchListener>> block = new ArrayList<>();
+                        scanSection(f, new Recorder(block), stats, null, sections);
+                        return block;
+                    }), size));
+                    queuedBytes += size;
+                    while (inFlight.size() >= AHEAD * stats.workers || queuedBytes > AHEAD_BYTES) {
+                        queuedBytes -= release(inFlight.poll(), walker, listener);
+                    }
+                } else {
+                    while (!inFlight.isEmpty()) queuedBytes -= release(inFlight.poll(), walker, listener);
+                    if (walker != null) walker.drainWarnings(listener);
+                    scanSection(file, listener, stats, pool, sections);
+                }
+            }
+            while (!inFlight.isEmpty()) release(inFlight.poll(), walker, listener);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            if (pool != null) pool.shutdownNow();
+        }
+    }
+
+    private record Pending(ForkJoinTask<List<Consumer<SearchListener>>> task, long size) {}
+
+    // Returns the size of the file whose block went out
+    private static long release(Pending pending, DirectoryWalker walker, SearchListener listener)
+            throws InterruptedException, ExecutionException {
+        List<Consumer<SearchListener>> block = pending.task.get();
+        if (walker != null) walker.drainWarnings(listener);
+        block.forEach(event -> event.accept(listener));
+        return pending.size;
+    }
+
+    private void scanSection(Path file, SearchListener listener, SearchStats total, ExecutorService chunks,
+                             boolean sections) {
+        if (!sections) {
+            scanFile(file, listener, total, chunks);
+            return;
+        }
+        if (stopped()) return;
+        long startTime = System.nanoTime();
+        SearchStats stats = new SearchStats();
+        try {
+            listener.onFileStart(file);
+            scanFile(file, listener, stats, chunks);
+            listener.onFileDone(file, stats, System.nanoTime() - startTime);
+        } finally {
+            total.add(stats);
+        }
+    }
+
+    // Whether file is scanned with the whole pool rather than as one task: a file
+    // big enough to split, or a big zip, whose entries are read in parallel. A
+    // gzip or tar stream can only be read from the start, so it is one task.
+    private boolean usesPool(Path file, long size) {
+        if (!FileScanner.splits(size, options.parallelism)) return false;
+        Archives.Kind kind = options.archives ? Archives.kindOf(file) : null;
+        return kind == null || kind == Archives.Kind.ZIP;
+    }
+
+    // Size for scheduling only; a file that cannot be read is reported by its scan
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // Wraps the listener that gets events in output order
+    private SearchListener totalLimit(SearchListener listener) {
+        return options.maxTotal > 0 ? new TotalLimit(listener) : listener;
+    }
+
+    // null when there is a single worker, which is the calling thread
+    private ForkJoinPool newPool() {
+        if (options.parallelism <= 1) return null;
+        return new ForkJoinPool(options.parallelism, pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("perg-scan-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+    }
+
+    // chunks, when not null, is the pool a file big enough to split is scanned on
+    private void scanFile(Path file, SearchListener listener, SearchStats stats, ExecutorService chunks) {
+        if (stopped()) return;
+        Archives.Kind archive = options.archives ? Archives.kindOf(file) : null;
+        if (archive != null) {
+            scanArchive(file, archive, listener, stats, chunks);
+            return;
+        }
+        FileLimit limit = new FileLimit(file, listener);
+        ResultCache.Key key = cache == null ? null : ResultCache.keyFor(file, options);
+        if (key != null) {
+            ResultCache.Entry cached = cache.get(key);
+            if (cached != null) {
+                replay(file, cached, limit, stats);
+                return;
+            }
+        }
+
+        try {
+            if (key == null) {
+                new FileScanner(options, matcher, chunks).scan(file, limit, stats, limit::done);
+            } else {
+                scanAndCache(file, key, limit, stats, chunks);
+            }
+        } catch (IOException e) {
+            listener.onWarning("Cannot open file: " + file);
+        }
+    }
+
+    // Each file in the archive is searched as a file of its own, archive!entry.
+    // Archives are not cached: their results are many files' under one key.
+    private void scanArchive(Path file, Archives.Kind kind, SearchListener listener, SearchStats stats,
+                             ExecutorService chunks) {
+        try {
+            if (kind == Archives.Kind.ZIP) {
+                scanZip(file, listener, stats, chunks);
+            } else {
+                Archives.read(file, kind, (name, in) -> {
+                    scanEntry(Archives.entry(file, name), in, listener, stats);
+                    return !stopped();
+                });
+            }
+        } catch (IOException e) {
+            listener.onWarning("Cannot read archive: " + file);
+        }
+    }
+
+    // Zip entries are compressed one by one, so given chunks they are decompressed
+    // and scanned in parallel, and their events handed on in archive order. Only
+    // a couple more entries than threads are in flight, as with chunks of a file.
+    private void scanZip(Path file, SearchListener listener, SearchStats stats, ExecutorService chunks) throws IOException {
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            Iterator<? extends ZipEntry> entries = zip.stream().filter(e -> !e.isDirectory()).iterator();
+            if (chunks == null) {
+                while (entries.hasNext() && !stopped()) scanZipEntry(zip, entries.next(), file, listener, stats);
+                return;
+            }
+            int ahead = Math.max(1, options.parallelism) + 2;
+            Deque<Future<List<Consumer<SearchListener>>>> inFlight = new ArrayDeque<>();
+            try {
+                while (true) {
+                    while (entries.hasNext() && inFlight.size() < ahead && !stopped()) {
+                        ZipEntry entry = entries.next();
+                        inFlight.add(chunks.submit(() -> {
+                            List<Consumer<SearchListener>> block = new ArrayList<>();
+                            scanZipEntry(zip, entry, file, new Recorder(block), stats);
+                            return block;
+                        }));
+                    }
+                    if (inFlight.isEmpty()) break;
+                    inFlight.poll().get().forEach(event -> event.accept(listener));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException io) throw io;
+                throw new IllegalStateException(e.getCause());
+            } finally {
+                // The entries still being read need the zip open; stopped, they
+                // return at their next check
+                for (Future<List<Consumer<SearchListener>>> future : inFlight) {
+                    if (!future.cancel(false)) {
+                        try {
+                            future.get();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } catch (ExecutionException e) {
+                            // Already reporting the first failure, or no longer needed
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void scanZipEntry(ZipFile zip, ZipEntry entry, Path file, SearchListener listener, SearchStats stats)
+            throws IOException {
+        try (InputStream in = zip.getInputStream(entry)) {
+            scanEntry(Archives.entry(file, entry.getName()), in, listener, stats);
+        }
+    }
+
+    private void scanEntry(Path entry, InputStream in, SearchListener listener, SearchStats stats) throws IOException {
+        FileLimit limit = new FileLimit(entry, listener);
+        new FileScanner(options, matcher).scanStream(entry, in, limit, stats, limit::done);
+    }
+
+    private void scanAndCache(Path file, ResultCache.Key key, FileLimit listener, SearchStats stats,
+                              ExecutorService chunks) throws IOException {
+        SearchStats fileStats = new SearchStats();
+        List<Match> recorded = new ArrayList<>();
+        long[] bytes = new long[1];
+        // Without a disk tier, results too big for the memory tier are not kept
+        long limit = options.diskCache ? Long.MAX_VALUE : options.cacheBytes / 4;
+        boolean complete = new FileScanner(options, matcher, chunks).scan(file, match -> {
+            listener.onMatch(match);
+            if (bytes[0] <= limit) {
+                recorded.add(match);
+                bytes[0] += ResultCache.sizeOf(match);
+            }
+        }, fileStats, listener::done);
+        stats.add(fileStats);
+        // A scan cut short by a limit has partial results, which must not be reused
+        if (complete && !listener.done() && bytes[0] <= limit) {
+            cache.put(key, new ResultCache.Entry(recorded, fileStats.linesScanned.sum(), fileStats.matchedLines.sum(), bytes[0]));
+        }
+    }
+
+    private static void replay(Path file, ResultCache.Entry cached, FileLimit listener, SearchStats stats) {
+        for (Match m : cached.matches()) {
+            if (listener.done() && m.kind() == Match.Kind.MATCH) break;
+            // Report the path the way this search spelled it
+            if (m.file().equals(file)) {
+                listener.onMatch(m);
+            } else if (m.kind() == Match.Kind.BINARY) {
+                listener.onMatch(Match.binary(file));
+            } else {
+                listener.onMatch(new Match(file, m.lineNumber(), m.byteOffset(), m.text(), m.start(), m.end(), m.pattern(), m.kind()));
+            }
+        }
+        stats.filesCached.increment();
+        stats.linesScanned.add(cached.linesScanned());
+        stats.matchedLines.add(cached.matchedLines());
+    }
+
+    // Applies the per-file match limit and -l to one file's matches. done() tells
+    // the scanner it can stop reading the file.
+    private final class FileLimit implements SearchListener {
+
+        private final Path file;
+        private final SearchListener listener;
+        private long fileMatches;
+        // Written by the thread that reports matches, read by chunk scanners too
+        private volatile boolean full;
+        // As many matches as --max-total; the scanner may stop, but what is still
+        // reported, up to the end of any -A context, is for TotalLimit to judge
+        private volatile boolean enough;
+
+        FileLimit(Path file, SearchListener listener) {
+            this.file = file;
+            this.listener = listener;
+        }
+
+        boolean done() {
+            return full || enough || stopped();
+        }
+
+        // Matches past the match limit are TotalLimit's to drop
+        private boolean dropping() {
+            return full || stopped() && !MATCH_LIMIT.equals(stopReason);
+        }
+
+        @Override
+        public void onMatch(Match match) {
+            if (match.kind() != Match.Kind.MATCH && match.kind() != Match.Kind.BINARY) {
+                // -A context after the last counted match still goes out, as with grep -m
+                if (!options.filesWithMatches) listener.onMatch(match);
+                return;
+            }
+            if (dropping()) return;
+
+            if (firstMatch.get() < 0) {
+                firstMatch.compareAndSet(-1, System.nanoTime() - startNanos);
+            }
+            if (options.filesWithMatches) {
+                listener.onMatch(Match.fileName(file));
+                full = true;
+            } else {
+                listener.onMatch(match);
+                fileMatches++;
+                if (options.maxPerFile > 0 && fileMatches >= options.maxPerFile) full = true;
+                // No more of this file's matches could count towards the total
+                if (options.maxTotal > 0 && fileMatches >= options.maxTotal) enough = true;
+            }
+        }
+
+        @Override
+        public void onWarning(String message) {
+            listener.onWarning(message);
+        }
+    }
+
+    // Applies --max-total to events in the order the listener gets them, which
+    // is the same for any -j, so the same first N matches are kept. Workers
+    // run ahead of that order, so only this decides which matches count; the N-th
+    // stops the search, and its -A context still goes out, as with -m.
+    private final class TotalLimit implements SearchListener {
+
+        private final SearchListener listener;
+        private long matches;
+        // The file of the N-th match, and how much of its context is left
+        private Path closing;
+        private int contextLeft;
+
+        TotalLimit(SearchListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onMatch(Match match) {
+            boolean counted = match.kind() == Match.Kind.MATCH || match.kind() == Match.Kind.BINARY
+                || match.kind() == Match.Kind.FILE;
+            if (matches < options.maxTotal) {
+                listener.onMatch(match);
+                if (counted && ++matches == options.maxTotal) {
+                    closing = match.file();
+                    contextLeft = options.extra ? options.numExtra : 0;
+                    stop(MATCH_LIMIT);
+                }
+            } else if (match.file().equals(closing)) {
+                if (match.kind() == Match.Kind.SEPARATOR) {
+                    listener.onMatch(match);
+                    closing = null;
+                } else if (contextLeft > 0 && match.lineNumber() >= 0) {
+                    // A later match in the trailing context is context here, as in grep
+                    contextLeft--;
+                    listener.onMatch(new Match(match.file(), match.lineNumber(), match.byteOffset(), match.text(),
+                        -1, -1, null, Match.Kind.CONTEXT));
+                }
+            }
+        }
+
+        @Override
+        public void onWarning(String message) {
+            listener.onWarning(message);
+        }
+
+        @Override
+        public void onFileStart(Path file) {
+            listener.onFileStart(file);
+        }
+
+        @Override
+        public void onFileDone(Path file, SearchStats stats, long nanos) {
+            listener.onFileDone(file, stats, nanos);
+        }
+    }
+
+    // Keeps a file's events, in order, until its block is released
+    private static final class Recorder implements SearchListener {
+
+        private final List<Consumer<SearchListener>> events;
+
+        Recorder(List<Consumer<SearchListener>> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void onMatch(Match match) {
+            events.add(l -> l.onMatch(match));
+        }
+
+        @Override
+        public void onWarning(String message) {
+            events.add(l -> l.onWarning(message));
+        }
+
+        @Override
+        public void onFileStart(Path file) {
+            events.add(l -> l.onFileStart(file));
+        }
+
+        @Override
+        public void onFileDone(Path file, SearchStats stats, long nanos) {
+            events.add(l -> l.onFileDone(file, stats, nanos));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// One whole search, with the same figures as the stats block in the result pane
+@Name("org.example.Search")
+@Label("Search")
+@Category({"PERG", "Search"})
+@Description("A search from start to finish, with where its time went")
+@StackTrace(false)
+final class SearchEvent extends jdk.jfr.Event {
+
+    @Label("Query")
+    String query;
+
+    @Label("Root")
+    String root;
+
+    @Label("Files Scanned")
+    long filesScanned;
+
+    @Label("Files Skipped")
+    long filesSkipped;
+
+    @Label("Files Cached")
+    long filesCached;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytesRead;
+
+    @Label("Lines Scanned")
+    long linesScanned;
+
+    @Label("Matched Lines")
+    long matchedLines;
+
+    @Label("Discovery Time")
+    @Timespan
+    long discoveryNanos;
+
+    @Label("Time To First Match")
+    @Description("-1 when nothing matched")
+    @Timespan
+    long firstMatchNanos;
+
+    @Label("Open Time")
+    @Timespan
+    long openNanos;
+
+    @Label("Read Time")
+    @Timespan
+    long readNanos;
+
+    @Label("Scan Time")
+    @Timespan
+    long scanNanos;
+
+    @Label("Matcher Time")
+    @Timespan
+    long matchNanos;
+
+    @Label("Workers")
+    int workers;
+
+    @Label("Worker Utilization")
+    @Percentage
+    double utilization;
+
+    @Label("Max Queue Depth")
+    long maxQueueDepth;
+
+    @Label("Stop Reason")
+    String stopReason;
+
+    void fill(SearchStats stats) {
+        filesScanned = stats.filesScanned.sum();
+        filesSkipped = stats.filesSkipped.sum();
+        filesCached = stats.filesCached.sum();
+        bytesRead = stats.bytesRead.sum();
+        linesScanned = stats.linesScanned.sum();
+        matchedLines = stats.matchedLines.sum();
+        discoveryNanos = stats.discoveryNanos;
+        firstMatchNanos = stats.firstMatchNanos;
+        openNanos = stats.openNanos.sum();
+        readNanos = stats.readNanos.sum();
+        scanNanos = stats.scanNanos.sum();
+        matchNanos = stats.matchNanos.sum();
+        workers = stats.workers;
+        utilization = stats.utilization();
+        maxQueueDepth = stats.maxQueueDepth.get();
+        stopReason = stats.stopReason;
+    }
+}
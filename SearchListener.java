@@ -0,0 +1,17 @@
+package org.example;
+
+import java.nio.file.Path;
+
+interface SearchListener {
+
+    void onMatch(Match match);
+
+    default void onWarning(String message) {
+    }
+
+    default void onFileStart(Path file) {
+    }
+
+    default void onFileDone(Path file, SearchStats stats, long nanos) {
+    }
+}
@@ -0,0 +1,352 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+
+final class SearchOptions {
+
+    // What to do with files ContentSniffer takes for binary
+    enum BinaryFiles { MATCHES, SKIP, TEXT }
+
+    static final String HELP =
+        "    Modes:\n" +
+        "    -A    After Context         Number of lines after match to display\n" +
+        "    -f    Single File Search    Search only one file\n" +
+        "    -i    Include Hidden        Include hidden files\n" +
+        "    -r    Recursive Search      Search subdirectories\n" +
+        "    -v    Invert Match          Print lines that do NOT match\n" +
+        "    -V    Verbose Output        Print file path before match\n" +
+        "    -c    Case Sensitive        Make search case-sensitive\n" +
+        "    -j    Workers               Threads scanning files and parts of big files\n" +
+        "    -e    Pattern               Add a literal pattern; repeat to search for many at once\n" +
+        "    -p    Pattern File          Read literal patterns from a file, one per line\n" +
+        "    -x    Use Index             Narrow folder searches with the trigram index\n" +
+        "    --cache MB                  Reuse per-file results of earlier searches (memory budget)\n" +
+        "    --disk-cache                Keep evicted cached results under ~/.perg/cache\n" +
+        "    -m    Max Count             Stop reading a file after this many matches\n" +
+        "    -l    Files With Matches    Print only the names of files that match\n" +
+        "    --max-total N               Stop the whole search after N matches\n" +
+        "    --time-budget MS            Stop the whole search after MS milliseconds\n" +
+        "    -I    Skip Binary           Don't read binary files at all\n" +
+        "    -a    Binary As Text        Search binary files like text files\n" +
+        "    -z    Search Archives       Read .gz, .zip, .jar and .tar(.gz) files as the files they hold\n" +
+        "    --encoding NAME             Charset of text files without a BOM (default: UTF-8,\n" +
+        "                                or windows-1252 for files that are not valid UTF-8)\n" +
+        "    --include GLOB              Search only files that match GLOB; repeatable\n" +
+        "    --exclude GLOB              Skip files that match GLOB; repeatable\n" +
+        "    --exclude-dir GLOB          Don't descend into folders that match GLOB; repeatable\n" +
+        "    --ext LIST                  Search only these extensions, e.g. java,kt\n" +
+        "    --max-size SIZE             Skip files larger than SIZE bytes (K, M or G suffix)\n" +
+        "    --no-ignore                 Don't honour .gitignore and .ignore files\n" +
+        "    --native                    Match with perg.cpp's engine in libperg (ECMAScript regex)\n" +
+        "    --                          End of options, for a term that starts with a dash\n";
+
+    boolean recursive;
+    boolean invert;
+    boolean verbose;
+    boolean checkHidden;
+    boolean caseSensitive;
+    boolean useIndex;
+    // Result cache budget in bytes; 0 turns the cache off
+    long cacheBytes;
+    boolean diskCache;
+    boolean extra;
+    int numExtra;
+    boolean filesWithMatches;
+    BinaryFiles binaryFiles = BinaryFiles.MATCHES;
+    // Search inside archives (see Archives) rather than their raw bytes
+    boolean archives;
+    // null to detect the charset of each file
+    Charset encoding;
+    // Folder search filters (see PathFilter)
+    List<String> includeGlobs = new ArrayList<>();
+    List<String> excludeGlobs = new ArrayList<>();
+    List<String> excludeDirGlobs = new ArrayList<>();
+    List<String> extensions = new ArrayList<>();
+    // 0 means no limit
+    long maxFileSize;
+    boolean ignoreFiles = true;
+    // Match limits; 0 means no limit
+    long maxPerFile;
+    long maxTotal;
+    long timeBudgetMillis;
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    String file;
+    String term;
+    // Literal patterns for multi-pattern mode; null for a single term
+    List<String> patterns;
+    // Match the term with libperg (see NativeMatcher)
+    boolean nativeEngine;
+
+    // Everything that decides which lines of a file are reported; verbose only
+    // changes how they are printed
+    String matchKey() {
+        String what = patterns != null ? "P" + String.join("\n", patterns) : "T" + term;
+        // Limits are left out: only complete results are cached, and those are
+        // trimmed to the limits on the way out
+        return what + "\u0000" + (invert ? "v" : "") + (caseSensitive ? "c" : "") + (extra ? "A" + numExtra : "")
+            + "b" + binaryFiles.ordinal() + (encoding != null ? "e" + encoding.name() : "") + (nativeEngine ? "n" : "");
+    }
+
+    // The command line that parse() turns back into these options; -p files come
+    // out as -e patterns, so the line means the same on another machine or folder
+    List<String> toArgs() {
+        List<String> args = new ArrayList<>();
+        if (recursive) args.add("-r");
+        if (invert) args.add("-v");
+        if (verbose) args.add("-V");
+        if (checkHidden) args.add("-i");
+        if (caseSensitive) args.add("-c");
+        if (useIndex) args.add("-x");
+        if (filesWithMatches) args.add("-l");
+        if (binaryFiles == BinaryFiles.SKIP) args.add("-I");
+        if (binaryFiles == BinaryFiles.TEXT) args.add("-a");
+        if (archives) args.add("-z");
+        if (!ignoreFiles) args.add("--no-ignore");
+        if (diskCache) args.add("--disk-cache");
+        if (nativeEngine) args.add("--native");
+        addArg(args, "--encoding", encoding == null ? null : encoding.name());
+        addArg(args, "--cache", cacheBytes > 0 ? String.valueOf(Math.max(1, cacheBytes >> 20)) : null);
+        addArg(args, "-A", extra ? String.valueOf(numExtra) : null);
+        addArg(args, "-m", maxPerFile > 0 ? String.valueOf(maxPerFile) : null);
+        addArg(args, "--max-total", maxTotal > 0 ? String.valueOf(maxTotal) : null);
+        addArg(args, "--time-budget", timeBudgetMillis > 0 ? String.valueOf(timeBudgetMillis) : null);
+        addArg(args, "--max-size", maxFileSize > 0 ? String.valueOf(maxFileSize) : null);
+        addArg(args, "--ext", extensions.isEmpty() ? null : String.join(",", extensions));
+        addArg(args, "-j", String.valueOf(parallelism));
+        includeGlobs.forEach(g -> addArg(args, "--include", g));
+        excludeGlobs.forEach(g -> addArg(args, "--exclude", g));
+        excludeDirGlobs.forEach(g -> addArg(args, "--exclude-dir", g));
+        if (patterns != null) {
+            patterns.forEach(p -> addArg(args, "-e", p));
+        } else {
+            // The term may start with a dash itself
+            args.add("--");
+            args.add(term);
+        }
+        return args;
+    }
+
+    private static void addArg(List<String> args, String option, String value) {
+        if (value != null) {
+            args.add(option);
+            args.add(value);
+        }
+    }
+
+    boolean isFile() {
+        return file != null;
+    }
+
+    // Same rules as getSettings() in perg.cpp
+    static SearchOptions parse(List<String> args) {
+        SearchOptions options = new SearchOptions();
+        Deque<String> settings = new ArrayDeque<>(args);
+
+        while (!settings.isEmpty()) {
+            String arg = settings.poll();
+            switch (arg) {
+                case "-r" -> options.recursive = true;
+                case "-v" -> options.invert = true;
+                case "-V" -> options.verbose = true;
+                case "-c" -> options.caseSensitive = true;
+                // The scheduler now picks file or chunk parallelism itself; still
+                // accepted so that old command lines keep working
+                case "-w" -> { }
+                case "-i" -> options.checkHidden = true;
+                case "-x" -> options.useIndex = true;
+                case "-l" -> options.filesWithMatches = true;
+                case "-I" -> options.binaryFiles = BinaryFiles.SKIP;
+                case "-a" -> options.binaryFiles = BinaryFiles.TEXT;
+                case "-z" -> options.archives = true;
+                case "--encoding" -> options.encoding = parseEncoding("--encoding", settings.poll());
+                case "--include" -> options.includeGlobs.add(requireValue("--include", settings.poll()));
+                case "--exclude" -> options.excludeGlobs.add(requireValue("--exclude", settings.poll()));
+                case "--exclude-dir" -> options.excludeDirGlobs.add(requireValue("--exclude-dir", settings.poll()));
+                case "--ext" -> options.addExtensions(requireValue("--ext", settings.poll()));
+                case "--max-size" -> options.maxFileSize = parseSize("--max-size", settings.poll());
+                case "--no-ignore" -> options.ignoreFiles = false;
+                case "-m" -> options.maxPerFile = parseLimit("-m", settings.poll());
+                case "--max-total" -> options.maxTotal = parseLimit("--max-total", settings.poll());
+                case "--time-budget" -> options.timeBudgetMillis = parseLimit("--time-budget", settings.poll());
+                case "--disk-cache" -> options.diskCache = true;
+                case "--native" -> options.nativeEngine = true;
+                case "--cache" -> {
+                    String next = settings.poll();
+                    try {
+                        options.cacheBytes = Long.parseLong(next == null ? "" : next.trim()) << 20;
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid number after --cache option: " + next);
+                    }
+                }
+                case "-f" -> {
+                    String next = settings.poll();
+                    if (next == null || next.startsWith("-")) {
+                        throw new IllegalArgumentException("Missing file path after -f option.");
+                    }
+                    options.file = next;
+                }
+                case "-A" -> {
+                    String next = settings.poll();
+                    if (next == null) {
+                        throw new IllegalArgumentException("Missing number after -A option.");
+                    }
+                    try {
+                        options.numExtra = Integer.parseInt(next.trim());
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid number after -A option: " + next);
+                    }
+                    if (options.numExtra < 0) {
+                        throw new IllegalArgumentException("After context number must be non-negative.");
+                    }
+                    options.extra = true;
+                }
+                case "-j" -> {
+                    String next = settings.poll();
+                    try {
+                        options.parallelism = Integer.parseInt(next == null ? "" : next.trim());
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid number after -j option: " + next);
+                    }
+                    if (options.parallelism < 1) {
+                        throw new IllegalArgumentException("Parallel files must be at least 1.");
+                    }
+                }
+                case "-e" -> {
+                    String next = settings.poll();
+                    if (next == null) {
+                        throw new IllegalArgumentException("Missing pattern after -e option.");
+                    }
+                    options.addPatterns(List.of(next));
+                }
+                case "-p" -> {
+                    String next = settings.poll();
+                    if (next == null) {
+                        throw new IllegalArgumentException("Missing file path after -p option.");
+                    }
+                    options.addPatterns(readPatterns(Path.of(next)));
+                }
+                // Ends the options: what follows is the term, even if it starts with a dash
+                case "--" -> {
+                    String next = settings.poll();
+                    if (next == null) {
+                        throw new IllegalArgumentException("Search term not provided.");
+                    }
+                    if (!settings.isEmpty()) {
+                        throw new IllegalArgumentException("Invalid usage. Multiple search terms provided.");
+                    }
+                    options.term = next;
+                }
+                default -> {
+                    if (!settings.isEmpty()) {
+                        throw new IllegalArgumentException("Invalid usage. Multiple search terms provided.");
+                    }
+                    options.term = arg;
+                }
+            }
+        }
+
+        if (options.patterns != null && options.term != null) {
+            options.addPatterns(List.of(options.term));
+        }
+        if (options.patterns == null && (options.term == null || options.term.isEmpty())) {
+            throw new IllegalArgumentException("Search term not provided.");
+        }
+        if (options.patterns != null && options.nativeEngine) {
+            throw new IllegalArgumentException("The native engine takes a single search term, not -e or -p patterns.");
+        }
+        return options;
+    }
+
+    // The charset named by option; FileScanner splits lines of one- and two-byte
+    // charsets only, so UTF-32 is refused
+    static Charset parseEncoding(String option, String value) {
+        Charset charset;
+        try {
+            charset = Charset.forName(value == null ? "" : value.trim());
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+            throw new IllegalArgumentException("Unknown encoding after " + option + " option: " + value);
+        }
+        if (charset.name().toUpperCase(Locale.ROOT).contains("UTF-32")) {
+            throw new IllegalArgumentException("UTF-32 is not supported by " + option + ": " + value);
+        }
+        return charset;
+    }
+
+    private static long parseLimit(String option, String value) {
+        long n;
+        try {
+            n = Long.parseLong(value == null ? "" : value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number after " + option + " option: " + value);
+        }
+        if (n < 1) {
+            throw new IllegalArgumentException("Number after " + option + " option must be at least 1.");
+        }
+        return n;
+    }
+
+    private static String requireValue(String option, String value) {
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("Missing value after " + option + " option.");
+        }
+        return value.trim();
+    }
+
+    // 512, 64K, 10M, 2G
+    static long parseSize(String option, String value) {
+        String v = requireValue(option, value).toUpperCase(Locale.ROOT);
+        int shift = switch (v.charAt(v.length() - 1)) {
+            case 'K' -> 10;
+            case 'M' -> 20;
+            case 'G' -> 30;
+            default -> 0;
+        };
+        try {
+            long n = Long.parseLong(shift == 0 ? v : v.substring(0, v.length() - 1));
+            if (n < 1) throw new NumberFormatException();
+            return n << shift;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size after " + option + " option: " + value);
+        }
+    }
+
+    // "java, .kt" and "java,kt" both give java and kt
+    void addExtensions(String list) {
+        for (String ext : list.split(",")) {
+            ext = ext.trim();
+            if (ext.startsWith(".")) ext = ext.substring(1);
+            if (!ext.isEmpty()) extensions.add(ext);
+        }
+    }
+
+    void addPatterns(List<String> more) {
+        if (patterns == null) patterns = new ArrayList<>();
+        for (String p : more) {
+            if (!p.isEmpty()) patterns.add(p);
+        }
+    }
+
+    // Blank lines are skipped; a trailing \r from Windows files is dropped
+    static List<String> readPatterns(Path file) {
+        try {
+            List<String> patterns = new ArrayList<>();
+            for (String line : Files.readAllLines(file)) {
+                if (line.endsWith("\r")) line = line.substring(0, line.length() - 1);
+                if (!line.isEmpty()) patterns.add(line);
+            }
+            return patterns;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read pattern file: " + file);
+        }
+    }
+}
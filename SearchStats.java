@@ -0,0 +1,104 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+final class SearchStats {
+
+    final LongAdder filesScanned = new LongAdder();
+    final LongAdder bytesRead = new LongAdder();
+    final LongAdder linesScanned = new LongAdder();
+    final LongAdder matchedLines = new LongAdder();
+    // Files ruled out without being read, e.g. by the trigram index
+    final LongAdder filesSkipped = new LongAdder();
+    // Files whose results came from the result cache
+    final LongAdder filesCached = new LongAdder();
+    // Binary files left unread because of -I
+    final LongAdder filesBinary = new LongAdder();
+
+    // Where the time went, summed over all workers: opening files, loading their
+    // bytes, and decoding plus matching them. matchNanos is the part of scanNanos
+    // spent in the matcher, estimated from a sample of lines.
+    final LongAdder openNanos = new LongAdder();
+    final LongAdder readNanos = new LongAdder();
+    final LongAdder scanNanos = new LongAdder();
+    final LongAdder matchNanos = new LongAdder();
+
+    // Search-wide figures, filled in by SearchEngine on the total only
+    volatile long wallNanos;
+    volatile long discoveryNanos;
+    volatile long firstMatchNanos = -1;
+    volatile int workers = 1;
+    // Files waiting between the walker and the scanners, sampled at every take
+    final LongAccumulator maxQueueDepth = new LongAccumulator(Math::max, 0);
+    final LongAdder queueDepthSum = new LongAdder();
+    final LongAdder queueSamples = new LongAdder();
+
+    // Why the search ended early ("cancelled", "match limit reached", ...); null if it ran to the end
+    volatile String stopReason;
+
+    boolean found() {
+        return matchedLines.sum() > 0;
+    }
+
+    void add(SearchStats other) {
+        filesScanned.add(other.filesScanned.sum());
+        bytesRead.add(other.bytesRead.sum());
+        linesScanned.add(other.linesScanned.sum());
+        matchedLines.add(other.matchedLines.sum());
+        filesSkipped.add(other.filesSkipped.sum());
+        filesCached.add(other.filesCached.sum());
+        filesBinary.add(other.filesBinary.sum());
+        openNanos.add(other.openNanos.sum());
+        readNanos.add(other.readNanos.sum());
+        scanNanos.add(other.scanNanos.sum());
+        matchNanos.add(other.matchNanos.sum());
+    }
+
+    void sampleQueue(int depth) {
+        maxQueueDepth.accumulate(depth);
+        queueDepthSum.add(depth);
+        queueSamples.increment();
+    }
+
+    // Share of the workers' wall time spent opening, reading or scanning files
+    double utilization() {
+        long available = wallNanos * workers;
+        return available == 0 ? 0 : Math.min(1, (double) (openNanos.sum() + readNanos.sum() + scanNanos.sum()) / available);
+    }
+
+    double linesPerSecond() {
+        return wallNanos == 0 ? 0 : linesScanned.sum() / (wallNanos / 1e9);
+    }
+
+    double averageQueueDepth() {
+        long samples = queueSamples.sum();
+        return samples == 0 ? 0 : (double) queueDepthSum.sum() / samples;
+    }
+
+    // The stats block shown under the results
+    String report() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("Files: %d scanned, %d skipped, %d binary skipped, %d from cache%n",
+            filesScanned.sum(), filesSkipped.sum(), filesBinary.sum(), filesCached.sum()));
+        out.append(String.format("Read: %.1f MB, %d lines (%.0f lines/s, %.1f MB/s)%n",
+            bytesRead.sum() / 1e6, linesScanned.sum(), linesPerSecond(), throughput(wallNanos)));
+        out.append(String.format("Time: %d ms total, %d ms finding files, first match after %s%n",
+            millis(wallNanos), millis(discoveryNanos), firstMatchNanos < 0 ? "-" : millis(firstMatchNanos) + " ms"));
+        out.append(String.format("Worker time: open %d ms, read %d ms, scan %d ms (matcher ~%d ms)%n",
+            millis(openNanos.sum()), millis(readNanos.sum()), millis(scanNanos.sum()), millis(matchNanos.sum())));
+        out.append(String.format("Workers: %d, %.0f%% busy; queue depth avg %.1f, max %d%n",
+            workers, utilization() * 100, averageQueueDepth(), maxQueueDepth.get()));
+        return out.toString();
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    // MB/s over the given wall time
+    double throughput(long nanos) {
+        return nanos == 0 ? 0 : (bytesRead.sum() / 1e6) / (nanos / 1e9);
+    }
+}
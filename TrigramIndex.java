@@ -0,0 +1,469 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// Optional on-disk index that narrows a directory search to candidate files.
+// Every file gets a bit signature of the (ASCII case-folded) byte trigrams it
+// contains; a file can only match if it has all the trigrams of the query's
+// required literals. Candidates are still verified by a normal scan, so a false
+// positive only costs time. The index lives under ~/.perg/index, is brought up
+// to date from file sizes and modification times when opened, and then follows
+// changes through a WatchService.
+final class TrigramIndex {
+
+    private static final int MAGIC = 0x50524731;
+    private static final int MIN_BITS = 1 << 9;
+    private static final int MAX_BITS = 1 << 20;
+    private static final Set<FileVisitOption> FOLLOW_LINKS = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
+    private static final Map<Path, TrigramIndex> OPEN = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+    // Printable ASCII, to tell whether a charset keeps it as it is
+    private static final String ASCII = "\t\n\r !\"#$%&'()*+,-./0123456789:;<=>?@"
+        + "ABCDEFGHIJKLMNOPQRSTUVWXYZ[\\]^_`abcdefghijklmnopqrstuvwxyz{|}~";
+
+    private final Path root;
+    private final Path store;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<Path> dirty = ConcurrentHashMap.newKeySet();
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private volatile boolean rescan = true;
+    private volatile boolean modified;
+    private WatchService watcher;
+
+    private record Entry(long size, long mtime, long[] bits) {
+
+        boolean mayContain(int trigram) {
+            int bit = slot(trigram, bits.length * 64);
+            return (bits[bit >>> 6] & (1L << bit)) != 0;
+        }
+    }
+
+    private TrigramIndex(Path root) {
+        this.root = root;
+        String name = Integer.toHexString(root.toString().hashCode()) + "-" + root.getFileName() + ".idx";
+        this.store = Path.of(System.getProperty("user.home"), ".perg", "index", name);
+    }
+
+    // One index per folder per process, so the watcher and loaded signatures stay warm
+    static TrigramIndex forDirectory(Path dir) {
+        return OPEN.computeIfAbsent(dir.toAbsolutePath().normalize(), root -> {
+            TrigramIndex index = new TrigramIndex(root);
+            index.load();
+            index.watch();
+            return index;
+        });
+    }
+
+    static void closeAll() {
+        OPEN.values().forEach(TrigramIndex::closeWatcher);
+        OPEN.clear();
+    }
+
+    // Files under the root that may match; files ruled out, by the index or by
+    // the search's PathFilter, are counted as skipped
+    synchronized List<Path> candidates(SearchOptions options, SearchStats stats) throws IOException {
+        boolean fresh = update();
+        List<int[]> query = queryTrigrams(options);
+        PathFilter filter = new PathFilter(options, root);
+        List<Path> files = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Path rel = Path.of(e.getKey());
+            if (!visible(rel, options)) continue;
+            if (!filter.accepts(rel, e.getValue().size)) {
+                stats.filesSkipped.increment();
+                continue;
+            }
+            // An archive's trigrams are those of its compressed bytes, which say
+            // nothing about what it holds
+            if (query == null || mayMatch(e.getValue(), query) || options.archives && Archives.kindOf(rel) != null) {
+                files.add(root.resolve(rel));
+            } else if (!fresh && changed(root.resolve(rel), e.getValue())) {
+                // The watcher has not told us yet, or never will on file systems
+                // without change events; the scan has the last word, and the next
+                // query reads the new signature
+                files.add(root.resolve(rel));
+                dirty.add(root.resolve(rel));
+            } else {
+                stats.filesSkipped.increment();
+            }
+        }
+        return files;
+    }
+
+    // Alternatives of trigram sets: a file is a candidate if it has every trigram
+    // of at least one set. null when the query cannot be narrowed.
+    static List<int[]> queryTrigrams(SearchOptions options) {
+        if (options.invert || !sameBytes(options)) return null;
+        List<int[]> alternatives = new ArrayList<>();
+
+        if (options.patterns != null) {
+            for (String pattern : options.patterns) {
+                // As for a single literal, only the runs ASCII folding finds for sure
+                int[] trigrams = trigrams(RegexAnalyzer.caseSafe(pattern, options.caseSensitive));
+                if (trigrams.length == 0) return null;
+                alternatives.add(trigrams);
+            }
+        } else if (LiteralMatcher.isLiteral(options.term, options.caseSensitive)) {
+            // Only the runs without i, k or s are in the file as ASCII for sure
+            int[] trigrams = trigrams(RegexAnalyzer.caseSafe(options.term, options.caseSensitive));
+            if (trigrams.length == 0) return null;
+            alternatives.add(trigrams);
+        } else {
+            List<List<String>> required = RegexAnalyzer.alternatives(options.term);
+            if (required == null) return null;
+            for (List<String> literals : required) {
+                // Unicode case folding is not modelled by the index
+                List<String> safe = new ArrayList<>();
+                for (String literal : literals) safe.addAll(RegexAnalyzer.caseSafe(literal, options.caseSensitive));
+                int[] trigrams = trigrams(safe);
+                if (trigrams.length == 0) return null;
+                alternatives.add(trigrams);
+            }
+        }
+        return alternatives;
+    }
+
+    // Query trigrams are of UTF-8 bytes. With --encoding the files hold the term
+    // in that charset, which is the same bytes only for ASCII in a charset that
+    // keeps ASCII as it is.
+    private static boolean sameBytes(SearchOptions options) {
+        if (options.encoding == null) return true;
+        if (!ASCII.equals(new String(ASCII.getBytes(options.encoding), StandardCharsets.ISO_8859_1))) return false;
+        List<String> terms = options.patterns != null ? options.patterns : List.of(options.term);
+        return terms.stream().allMatch(t -> t.chars().allMatch(c -> c < 0x80));
+    }
+
+    // Whether file's size or mtime differs from entry; a file that is gone
+    // cannot match
+    private static boolean changed(Path file, Entry entry) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            return entry.size != attrs.size() || entry.mtime != attrs.lastModifiedTime().toMillis();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static int[] trigrams(List<String> literals) {
+        Set<Integer> set = new HashSet<>();
+        for (String literal : literals) {
+            byte[] bytes = literal.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i + 3 <= bytes.length; i++) {
+                set.add((fold(bytes[i]) & 0xff) << 16 | (fold(bytes[i + 1]) & 0xff) << 8 | (fold(bytes[i + 2]) & 0xff));
+            }
+        }
+        return set.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static boolean mayMatch(Entry entry, List<int[]> query) {
+        outer:
+        for (int[] trigrams : query) {
+            for (int t : trigrams) {
+                if (!entry.mayContain(t)) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean visible(Path rel, SearchOptions options) {
+        if (!options.recursive && rel.getNameCount() > 1) return false;
+        if (!options.checkHidden) {
+            for (Path part : rel) {
+                if (part.toString().startsWith(".")) return false;
+            }
+        }
+        return true;
+    }
+
+    // True when every file was just compared with the index
+    private boolean update() throws IOException {
+        boolean full = rescan || watcher == null;
+        if (full) {
+            rescan = false;
+            dirty.clear();
+            fullScan();
+        } else if (!dirty.isEmpty()) {
+            List<Path> paths = new ArrayList<>(dirty);
+            dirty.removeAll(paths);
+            paths.parallelStream().forEach(this::refresh);
+        }
+        if (modified) save();
+        return full;
+    }
+
+    // Compares every file's size and mtime with the index and re-reads only the
+    // ones that changed. Symbolic links are followed, as DirectoryWalker follows
+    // them, so the index holds every file a walked search would read.
+    private void fullScan() throws IOException {
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        List<Path> changed = new ArrayList<>();
+        Files.walkFileTree(root, FOLLOW_LINKS, Integer.MAX_VALUE, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+                String key = key(file);
+                seen.add(key);
+                Entry entry = entries.get(key);
+                if (entry == null || entry.size != attrs.size() || entry.mtime != attrs.lastModifiedTime().toMillis()) {
+                    changed.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Unreadable, or a link back to a folder above it
+                // (FileSystemLoopException)
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        if (entries.keySet().retainAll(seen)) modified = true;
+        changed.parallelStream().forEach(this::refresh);
+    }
+
+    private void refresh(Path file) {
+        String key = key(file);
+        try {
+            if (!Files.isRegularFile(file)) {
+                // Deleted file, or a deleted directory and everything under it
+                if (entries.remove(key) != null) modified = true;
+                if (entries.keySet().removeIf(k -> k.startsWith(key + File.separator))) modified = true;
+                return;
+            }
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            long mtime = attrs.lastModifiedTime().toMillis();
+            Entry entry = entries.get(key);
+            if (entry != null && entry.size == attrs.size() && entry.mtime == mtime) return;
+            entries.put(key, new Entry(attrs.size(), mtime, signature(file)));
+            modified = true;
+        } catch (IOException e) {
+            if (entries.remove(key) != null) modified = true;
+        }
+    }
+
+    private String key(Path file) {
+        return root.relativize(file).toString();
+    }
+
+    private static long[] signature(Path file) throws IOException {
+        Scratch scratch = SCRATCH.get();
+        // Cleared however the read ends, or the next signature on this thread
+        // would skip trigrams it never saw
+        try {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buf = ByteBuffer.wrap(scratch.chunk);
+                int t = 0;
+                long n = 0;
+                int read;
+                boolean first = true;
+                while ((read = channel.read(buf.clear())) > 0) {
+                    if (first) {
+                        first = false;
+                        // Trigrams are taken over UTF-8 bytes; text in any other charset
+                        // must never be ruled out
+                        ContentSniffer.Content content = ContentSniffer.sniff(buf, read, read < channel.size(), null);
+                        if (!content.binary() && !content.charset().equals(StandardCharsets.UTF_8)) {
+                            long[] all = new long[MIN_BITS / 64];
+                            Arrays.fill(all, -1L);
+                            return all;
+                        }
+                    }
+                    for (int i = 0; i < read; i++) {
+                        t = (t << 8 | (fold(scratch.chunk[i]) & 0xff)) & 0xffffff;
+                        if (++n >= 3) scratch.add(t);
+                    }
+                }
+            }
+
+            int bits = MIN_BITS;
+            while (bits < MAX_BITS && bits < scratch.count * 8L) bits <<= 1;
+            long[] words = new long[bits / 64];
+            for (int i = 0; i < scratch.count; i++) {
+                int bit = slot(scratch.list[i], bits);
+                words[bit >>> 6] |= 1L << bit;
+            }
+            return words;
+        } finally {
+            scratch.clear();
+        }
+    }
+
+    private static int slot(int trigram, int bits) {
+        return (int) ((trigram * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(bits)));
+    }
+
+    private static byte fold(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+    }
+
+    private void load() {
+        if (!Files.exists(store)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(Files.newInputStream(store))))) {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(root.toString())) return;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                long[] bits = new long[in.readInt()];
+                for (int j = 0; j < bits.length; j++) bits[j] = in.readLong();
+                entries.put(key, new Entry(size, mtime, bits));
+            }
+        } catch (IOException e) {
+            entries.clear();
+        }
+    }
+
+    private void save() throws IOException {
+        Files.createDirectories(store.getParent());
+        Path tmp = store.resolveSibling(store.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new DeflaterOutputStream(Files.newOutputStream(tmp))))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(root.toString());
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().size);
+                out.writeLong(e.getValue().mtime);
+                out.writeInt(e.getValue().bits.length);
+                for (long word : e.getValue().bits) out.writeLong(word);
+            }
+        }
+        Files.move(tmp, store, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        modified = false;
+    }
+
+    // Without a watcher (or after an overflow) every query falls back to a full
+    // size/mtime pass, which still avoids re-reading unchanged files
+    private void watch() {
+        try {
+            watcher = root.getFileSystem().newWatchService();
+            registerAll(root);
+        } catch (IOException e) {
+            closeWatcher();
+            return;
+        }
+        Thread thread = new Thread(this::watchLoop, "perg-index-watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Folders reached through links are watched too, as fullScan() indexes them
+    private void registerAll(Path dir) throws IOException {
+        Files.walkFileTree(dir, FOLLOW_LINKS, Integer.MAX_VALUE, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = d.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirs.put(key, d);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                // Files inside a newly created directory need indexing too; the
+                // root itself is covered by the full scan
+                if (!dir.equals(root)) dirty.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Path dir = watchedDirs.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                        rescan = true;
+                        continue;
+                    }
+                    Path child = dir.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                        try {
+                            registerAll(child);
+                        } catch (IOException e) {
+                            rescan = true;
+                        }
+                    } else {
+                        dirty.add(child);
+                    }
+                }
+                if (!key.reset()) watchedDirs.remove(key);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Index closed
+        }
+    }
+
+    private void closeWatcher() {
+        try {
+            if (watcher != null) watcher.close();
+        } catch (IOException ignored) {
+        }
+        watcher = null;
+    }
+
+    // Per-thread buffers for building signatures: a 2^24-bit set of seen trigrams
+    // and the list of the ones set, so clearing costs only what was used
+    private static final class Scratch {
+
+        final byte[] chunk = new byte[1 << 20];
+        final long[] seen = new long[1 << 18];
+        int[] list = new int[1 << 16];
+        int count;
+
+        void add(int t) {
+            long mask = 1L << t;
+            if ((seen[t >>> 6] & mask) != 0) return;
+            seen[t >>> 6] |= mask;
+            if (count == list.length) list = Arrays.copyOf(list, count * 2);
+            list[count++] = t;
+        }
+
+        void clear() {
+            for (int i = 0; i < count; i++) seen[list[i] >>> 6] = 0;
+            count = 0;
+        }
+    }
+}
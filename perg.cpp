@@ -9,6 +9,8 @@
 #include <string.h>
 #include <sstream>
 #include <algorithm>
+#include <vector>
+#include <cstdint>
 #include <omp.h>
 
 struct Settings {
@@ -261,6 +263,7 @@ void findAll(std::queue<std::string> *filePaths, const char *cwd, Settings *inst
 	closedir(dir);
 }
 
+#ifndef PERG_LIBRARY
 int main(int argc, char *argv[]) {
 	if (argc < 2) {
 		std::cerr << "ERROR: No arguments provided.\n";
@@ -307,4 +310,114 @@ int main(int argc, char *argv[]) {
 	delete filePaths;
 	delete instance;
 	return 0;
-}
\ No newline at end of file
+}
+#endif
+
+// Library API, built with -DPERG_LIBRARY -shared (the nativeLibrary task in
+// build.gradle) for NativeMatcher, which calls it in process through
+// java.lang.foreign. The caller owns the text: it passes a buffer and gets the
+// matching lines back as byte offsets into it, through a callback made on the
+// calling thread, in file order.
+extern "C" {
+
+// Return non-zero to stop the scan once the lines matched with this one are in
+typedef int (*perg_line_fn)(int64_t lineStart, int64_t lineEnd, int64_t matchStart, int64_t matchEnd);
+
+struct perg_pattern {
+	std::regex rgx;
+};
+
+// Each thread of a scan takes this many bytes of lines per round
+static const int64_t PERG_BLOCK = 256 << 10;
+
+struct perg_hit {
+	int64_t lineStart, lineEnd, matchStart, matchEnd;
+};
+
+// Start of the line after the '\n' at or after pos, or to
+static int64_t perg_next_line(const char *data, int64_t pos, int64_t to) {
+	if (pos >= to) return to;
+	const char *nl = (const char *) memchr(data + pos, '\n', to - pos);
+	return nl ? nl - data + 1 : to;
+}
+
+// NULL when term is not a valid regular expression
+perg_pattern *perg_compile(const char *term, int caseSensitive) {
+	try {
+		return new perg_pattern{caseSensitive ? std::regex(term) : std::regex(term, std::regex_constants::icase)};
+	} catch (const std::regex_error& e) {
+		return NULL;
+	}
+}
+
+void perg_free(perg_pattern *pattern) {
+	delete pattern;
+}
+
+// 1 with the first match in *start and *end, 0 when the line does not match,
+// -1 when the regex gave up on it
+int perg_match(const perg_pattern *pattern, const char *line, int64_t length, int64_t *start, int64_t *end) {
+	try {
+		std::cmatch m;
+		if (!std::regex_search(line, line + length, m, pattern->rgx)) return 0;
+		*start = m.position(0);
+		*end = *start + m.length(0);
+		return 1;
+	} catch (const std::regex_error& e) {
+		return -1;
+	}
+}
+
+// Calls onLine for every line of data[from, to) that matches. Lines end at '\n',
+// without a '\r' before it. Each round matches threads blocks of lines on as
+// many OpenMP threads, then reports their hits; a stop takes effect at the end
+// of the round, so no line is matched twice. Returns where a later call can
+// carry on, which is to when every line was seen, or -1 when the regex gave up
+// on a line.
+int64_t perg_scan(const perg_pattern *pattern, const char *data, int64_t from, int64_t to, int threads,
+		perg_line_fn onLine) {
+	if (threads < 1) threads = 1;
+	std::vector<int64_t> starts(threads + 1);
+	std::vector<std::vector<perg_hit> > hits(threads);
+	int64_t pos = from;
+	while (pos < to) {
+		starts[0] = pos;
+		for (int t = 1; t <= threads; ++t)
+			starts[t] = perg_next_line(data, std::min(to, starts[t - 1] + PERG_BLOCK), to);
+		bool failed = false;
+
+		#pragma omp parallel for num_threads(threads) schedule(static, 1)
+		for (int t = 0; t < threads; ++t) {
+			hits[t].clear();
+			std::cmatch m;
+			for (int64_t line = starts[t]; line < starts[t + 1]; ) {
+				int64_t next = perg_next_line(data, line, starts[t + 1]);
+				int64_t end = next > line && data[next - 1] == '\n' ? next - 1 : next;
+				if (end > line && data[end - 1] == '\r') end--;
+				try {
+					if (std::regex_search(data + line, data + end, m, pattern->rgx)) {
+						int64_t start = line + m.position(0);
+						hits[t].push_back({line, end, start, start + m.length(0)});
+					}
+				} catch (const std::regex_error& e) {
+					#pragma omp atomic write
+					failed = true;
+				}
+				line = next;
+			}
+		}
+
+		if (failed) return -1;
+		bool stop = false;
+		for (int t = 0; t < threads; ++t) {
+			for (const perg_hit &h : hits[t]) {
+				if (onLine(h.lineStart, h.lineEnd, h.matchStart, h.matchEnd)) stop = true;
+			}
+		}
+		pos = starts[threads];
+		if (stop) break;
+	}
+	return pos;
+}
+
+}
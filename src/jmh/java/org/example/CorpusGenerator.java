@@ -0,0 +1,121 @@
+package org.example;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+// Writes the synthetic corpora the benchmarks search. Output depends only on the
+// shape, the density, the scale and SEED, so every run and every machine searches
+// the same bytes. A corpus is reused when its directory already holds a complete one.
+//
+// NEEDLE appears in matching lines, half of the time with its case changed, so a
+// case-folded search finds twice as many lines as an exact one. Public only
+// because the code JMH generates reads the enums from another package.
+public final class CorpusGenerator {
+
+    static final long SEED = 0x5045_5247L;
+    static final String NEEDLE = "zyxneedle";
+    static final String NEEDLE_REGEX = "zyxne+dle";
+
+    private static final String[] WORDS = {
+        "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel", "india",
+        "juliet", "kilo", "lima", "mike", "november", "oscar", "papa", "quebec", "romeo",
+        "sierra", "tango", "uniform", "victor", "whiskey", "xray", "yankee", "zulu",
+        "ERROR", "WARN", "INFO", "DEBUG", "request", "response", "timeout", "user", "id=",
+    };
+
+    public enum Shape {
+        // Many small files spread over nested folders
+        SMALL_FILES(2_000, 4 << 10, 40, 120),
+        // A few files far bigger than one mapped window
+        HUGE_FILES(2, 96 << 20, 40, 120),
+        // Lines from 16 KB up to 1 MB
+        LONG_LINES(16, 4 << 20, 16 << 10, 1 << 20);
+
+        final int files;
+        final long fileBytes;
+        final int minLine;
+        final int maxLine;
+
+        Shape(int files, long fileBytes, int minLine, int maxLine) {
+            this.files = files;
+            this.fileBytes = fileBytes;
+            this.minLine = minLine;
+            this.maxLine = maxLine;
+        }
+    }
+
+    public enum Density {
+        // One line in 10 matches
+        HIGH(10),
+        // One line in 100,000 matches
+        LOW(100_000);
+
+        final int oneIn;
+
+        Density(int oneIn) {
+            this.oneIn = oneIn;
+        }
+    }
+
+    private CorpusGenerator() {
+    }
+
+    // -Dperg.corpus.dir picks the parent folder, -Dperg.corpus.scale multiplies the file sizes
+    static Path corpus(Shape shape, Density density) {
+        Path root = Path.of(System.getProperty("perg.corpus.dir", System.getProperty("java.io.tmpdir")), "perg-corpus");
+        double scale = Double.parseDouble(System.getProperty("perg.corpus.scale", "1"));
+        Path dir = root.resolve(shape + "-" + density + "-" + scale + "-" + Long.toHexString(SEED));
+        Path done = dir.resolve(".complete");
+        if (Files.exists(done)) {
+            return dir;
+        }
+        try {
+            generate(dir, shape, density, scale);
+            Files.createFile(done);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return dir;
+    }
+
+    private static void generate(Path dir, Shape shape, Density density, double scale) throws IOException {
+        SplittableRandom random = new SplittableRandom(SEED ^ shape.ordinal() * 31L ^ density.ordinal());
+        long fileBytes = Math.max(1, (long) (shape.fileBytes * scale));
+        for (int f = 0; f < shape.files; f++) {
+            // Ten files per folder, three levels deep at most
+            Path file = dir.resolve("d" + f % 7).resolve("e" + f / 10 % 5).resolve("f" + f + ".log");
+            Files.createDirectories(file.getParent());
+            try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                long written = 0;
+                StringBuilder line = new StringBuilder(shape.maxLine + 64);
+                while (written < fileBytes) {
+                    fillLine(line, random, shape, density);
+                    out.append(line).append('\n');
+                    written += line.length() + 1;
+                }
+            }
+        }
+    }
+
+    private static void fillLine(StringBuilder line, SplittableRandom random, Shape shape, Density density) {
+        line.setLength(0);
+        int length = random.nextInt(shape.minLine, shape.maxLine + 1);
+        boolean match = random.nextInt(density.oneIn) == 0;
+        int needleAt = match ? random.nextInt(length) : -1;
+        while (line.length() < length) {
+            if (needleAt >= 0 && line.length() >= needleAt) {
+                line.append(random.nextBoolean() ? NEEDLE : NEEDLE.toUpperCase()).append(' ');
+                needleAt = -1;
+            }
+            line.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        if (needleAt >= 0) {
+            line.append(random.nextBoolean() ? NEEDLE : NEEDLE.toUpperCase());
+        }
+    }
+}
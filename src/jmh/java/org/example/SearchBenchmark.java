@@ -0,0 +1,83 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Whole-folder searches over the generated corpora, one parameter per search path.
+// The megabytes counter turns into MB/s in the report; allocation rate comes from
+// the gc profiler that build.gradle switches on. That profiler only counts the
+// benchmark thread, so it misses what the scan pool's threads allocate.
+//
+// The result cache and the trigram index stay off, so every operation reads
+// every file.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SearchBenchmark {
+
+    @Param({"SMALL_FILES", "HUGE_FILES", "LONG_LINES"})
+    public CorpusGenerator.Shape shape;
+
+    @Param({"HIGH", "LOW"})
+    public CorpusGenerator.Density density;
+
+    // LITERAL takes the Horspool byte path. REGEX has a required literal, so
+    // its bytes are searched for first and java.util.regex only runs on the
+    // lines that hold it (see LineMatcher.compile).
+    @Param({"LITERAL", "REGEX"})
+    public String matcher;
+
+    // -c: exact bytes, versus ASCII case folding
+    @Param({"false", "true"})
+    public boolean caseSensitive;
+
+    private Path corpus;
+    private SearchOptions options;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Volume {
+        // Reported per second, i.e. as MB/s
+        public double megabytes;
+        public long matches;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+            matches = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        corpus = CorpusGenerator.corpus(shape, density);
+        options = new SearchOptions();
+        options.recursive = true;
+        options.caseSensitive = caseSensitive;
+        options.term = matcher.equals("LITERAL") ? CorpusGenerator.NEEDLE : CorpusGenerator.NEEDLE_REGEX;
+    }
+
+    @Benchmark
+    public void searchDirectory(Volume volume, Blackhole blackhole) throws InterruptedException {
+        LongAdder matches = new LongAdder();
+        SearchStats stats = new SearchEngine(options).searchDirectory(corpus, match -> {
+            matches.increment();
+            blackhole.consume(match);
+        });
+        volume.megabytes += stats.bytesRead.sum() / 1e6;
+        volume.matches += matches.sum();
+    }
+}
@@ -0,0 +1,61 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Multi-pattern search must find a line exactly when Pattern finds one of the
+// patterns quoted, as single-term search does, the byte search included.
+class AhoCorasickMatcherTest {
+
+    private static final List<String> LINES = List.of(
+        "", "plain", "the Kelvin scale", "\u212aelvin", "KELVIN", "\u017fleep well", "SLEEP", "\u0131st", "\u0130ST",
+        "stra\u00dfe", "STRASSE", "\u00e9t\u00e9", "\u00c9T\u00c9", "caf\u00c9", "Caf\u00e9", "\u00c5ngstr\u00f6m",
+        "\u212bngstr\u00f6m", "ERROR 42", "error", "warn", "\ud83d\ude00 smile", "tab\tend");
+
+    @Test
+    void asciiPatternsWithFoldingLetters() {
+        agree(List.of("kelvin", "sleep"), List.of("ist", "warn"), List.of("error", "smile"));
+    }
+
+    @Test
+    void nonAsciiPatterns() {
+        agree(List.of("caf\u00e9"), List.of("\u00e9t\u00e9", "stra\u00dfe"), List.of("\u00e5ngstr\u00f6m", "x"),
+            List.of("\u0130st"), List.of("\u212aelvin"), List.of("\ud83d\ude00"));
+    }
+
+    @SafeVarargs
+    private static void agree(List<String>... patternLists) {
+        for (List<String> patterns : patternLists) {
+            for (boolean caseSensitive : new boolean[] {true, false}) {
+                agree(patterns, caseSensitive);
+            }
+        }
+    }
+
+    private static void agree(List<String> patterns, boolean caseSensitive) {
+        int flags = caseSensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        Pattern any = Pattern.compile(patterns.stream().map(Pattern::quote).collect(Collectors.joining("|")), flags);
+        AhoCorasickMatcher matcher = new AhoCorasickMatcher(patterns, caseSensitive);
+        for (String line : LINES) {
+            String what = patterns + (caseSensitive ? "" : " ignoring case") + " on \"" + line + "\"";
+            boolean found = any.matcher(line).find();
+            LineMatcher.Hit hit = matcher.find(line);
+            assertEquals(found, hit != null, "find for " + what);
+            if (!found) continue;
+
+            String pattern = matcher.patternOf(hit);
+            assertTrue(Pattern.compile(Pattern.quote(pattern), flags).matcher(line.substring(hit.start(), hit.end())).matches(),
+                "span of " + pattern + " for " + what);
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            assertTrue(matcher.indexIn(ByteBuffer.wrap(bytes), 0, bytes.length) >= 0, "byte search for " + what);
+        }
+    }
+}
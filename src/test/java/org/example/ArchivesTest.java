@@ -0,0 +1,172 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Searches tar and gzip archives written here byte by byte, for the header
+// forms Archives has to read by hand, and checks each match comes back as
+// archive!entry with the entry's own line numbers.
+class ArchivesTest {
+
+    private static final int BLOCK = 512;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void gnuLongName() throws IOException {
+        String name = "logs/" + "deep/".repeat(30) + "app.log";
+        Tar tar = new Tar();
+        tar.entry("././@LongLink", 'L', (name + "\0").getBytes(StandardCharsets.UTF_8));
+        tar.entry(name.substring(0, 100), '0', lines("one", "needle two", "three"));
+        tar.entry("after.txt", '0', lines("needle after"));
+        Path archive = tar.write(dir.resolve("long.tar"));
+
+        assertEquals(List.of(name + ":2:needle two", "after.txt:1:needle after"), search(archive));
+    }
+
+    @Test
+    void paxPath() throws IOException {
+        String name = "pax/" + "x".repeat(150) + ".log";
+        String record = " path=" + name + "\n";
+        int length = record.length() + 3;
+        Tar tar = new Tar();
+        tar.entry("PaxHeaders/x", 'x', (length + record).getBytes(StandardCharsets.UTF_8));
+        tar.entry("pax/short.log", '0', lines("needle", "no", "needle again"));
+        tar.entry("after.txt", '0', lines("needle after"));
+        Path archive = tar.write(dir.resolve("pax.tar"));
+
+        assertEquals(List.of(name + ":1:needle", name + ":3:needle again", "after.txt:1:needle after"),
+            search(archive));
+    }
+
+    @Test
+    void ustarPrefix() throws IOException {
+        Tar tar = new Tar();
+        tar.entry("some/deep/folder", "file.txt", '0', lines("x", "y", "a needle"));
+        Path archive = tar.write(dir.resolve("prefix.tar"));
+
+        assertEquals(List.of("some/deep/folder/file.txt:3:a needle"), search(archive));
+    }
+
+    @Test
+    void entryFillingWholeBlocks() throws IOException {
+        // 64 lines of 15 chars and a newline: exactly two blocks, no padding
+        List<String> text = new ArrayList<>();
+        for (int i = 1; i <= 64; i++) text.add(String.format("needle line %03d", i));
+        byte[] content = lines(text.toArray(new String[0]));
+        assertEquals(2 * BLOCK, content.length);
+        Tar tar = new Tar();
+        tar.entry("full.txt", '0', content);
+        tar.entry("next.txt", '0', lines("first", "needle second"));
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 1; i <= 64; i++) expected.add("full.txt:" + i + ":" + text.get(i - 1));
+        expected.add("next.txt:2:needle second");
+        assertEquals(expected, search(tar.write(dir.resolve("full.tar"))));
+        // The same blocks through gzip
+        assertEquals(expected, search(tar.writeGzipped(dir.resolve("full.tgz"))));
+    }
+
+    @Test
+    void multiMemberGzip() throws IOException {
+        Path archive = dir.resolve("app.log.gz");
+        try (OutputStream out = Files.newOutputStream(archive)) {
+            out.write(gzip(lines("needle one", "two")));
+            out.write(gzip(lines("three", "needle four")));
+        }
+
+        assertEquals(List.of("app.log:1:needle one", "app.log:4:needle four"), search(archive));
+    }
+
+    // Matches of "needle" as entry:line:text, the entry without its archive
+    private List<String> search(Path archive) {
+        List<String> found = Collections.synchronizedList(new ArrayList<>());
+        new SearchEngine(SearchOptions.parse(List.of("-z", "needle"))).searchFile(archive, match -> {
+            String file = match.file().toString();
+            String prefix = archive + "!";
+            assertTrue(file.startsWith(prefix), "not inside the archive: " + file);
+            found.add(file.substring(prefix.length()) + ":" + match.lineNumber() + ":" + match.text());
+        });
+        return found;
+    }
+
+    private static byte[] lines(String... lines) {
+        return (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    // A ustar archive, headers and all
+    private static final class Tar {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        void entry(String name, char type, byte[] content) {
+            entry("", name, type, content);
+        }
+
+        void entry(String prefix, String name, char type, byte[] content) {
+            byte[] header = new byte[BLOCK];
+            put(header, 0, name);
+            put(header, 100, "0000644");
+            put(header, 108, "0000000");
+            put(header, 116, "0000000");
+            put(header, 124, String.format("%011o", content.length));
+            put(header, 136, "00000000000");
+            header[156] = (byte) type;
+            put(header, 257, "ustar");
+            put(header, 263, "00");
+            put(header, 345, prefix);
+            Arrays.fill(header, 148, 156, (byte) ' ');
+            int sum = 0;
+            for (byte b : header) sum += b & 0xff;
+            put(header, 148, String.format("%06o", sum));
+            out.writeBytes(header);
+            out.writeBytes(content);
+            out.writeBytes(new byte[(BLOCK - content.length % BLOCK) % BLOCK]);
+        }
+
+        Path write(Path file) throws IOException {
+            return Files.write(file, archive());
+        }
+
+        Path writeGzipped(Path file) throws IOException {
+            return Files.write(file, gzip(archive()));
+        }
+
+        // Two zero blocks end it
+        private byte[] archive() {
+            ByteArrayOutputStream archive = new ByteArrayOutputStream();
+            archive.writeBytes(out.toByteArray());
+            archive.writeBytes(new byte[2 * BLOCK]);
+            return archive.toByteArray();
+        }
+
+        private static void put(byte[] header, int at, String text) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(bytes, 0, header, at, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A file big enough to be split into chunks, with matches just before each
+// chunk boundary, so their -A context runs on into the next chunk. Output
+// must be what one worker reading the whole file gives.
+class ChunkContextTest {
+
+    private static final int CONTEXT = 3;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void afterContextAcrossChunks() throws IOException {
+        int workers = 4;
+        long size = FileScanner.SPLIT + (2 << 20);
+        long chunk = FileScanner.chunkSize(size, workers);
+        assertTrue(FileScanner.splits(size, workers));
+
+        // Lines of varying length, a needle in the last few lines before each
+        // chunk-sized step and every 5000th line besides
+        List<String> lines = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        long offset = 0;
+        for (int i = 1; offset < size; i++) {
+            long next = (offset / chunk + 1) * chunk;
+            boolean needle = i % 5000 == 0 || next - offset < 3 * 80 || offset % chunk < 40;
+            String line = (needle ? "needle " : "line ") + i + " " + "x".repeat(i % 61);
+            lines.add(line);
+            offsets.add(offset);
+            text.append(line).append('\n');
+            offset += line.length() + 1;
+        }
+        Path file = Files.writeString(dir.resolve("big.txt"), text, StandardCharsets.UTF_8);
+
+        List<String> expected = new ArrayList<>();
+        int last = -1;
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).startsWith("needle")) {
+                expected.add(row(Match.Kind.MATCH, i + 1, offsets.get(i), lines.get(i)));
+                last = i;
+            } else if (last >= 0 && i - last <= CONTEXT) {
+                expected.add(row(Match.Kind.CONTEXT, i + 1, offsets.get(i), lines.get(i)));
+            }
+        }
+
+        List<Match> whole = search(file, 1);
+        List<Match> split = search(file, workers);
+        assertEquals(expected, rows(split));
+        assertEquals(rows(whole), rows(split));
+        assertEquals(kinds(whole), kinds(split), "separators");
+    }
+
+    private static List<Match> search(Path file, int workers) {
+        List<Match> found = Collections.synchronizedList(new ArrayList<>());
+        SearchOptions options = SearchOptions.parse(List.of("-j", String.valueOf(workers), "-A", String.valueOf(CONTEXT), "needle"));
+        new SearchEngine(options).searchFile(file, found::add);
+        return found;
+    }
+
+    // Matched and context lines as kind:line:offset:text
+    private static List<String> rows(List<Match> matches) {
+        List<String> rows = new ArrayList<>();
+        for (Match m : matches) {
+            if (m.kind() == Match.Kind.MATCH || m.kind() == Match.Kind.CONTEXT) {
+                rows.add(row(m.kind(), m.lineNumber(), m.byteOffset(), m.text()));
+            }
+        }
+        return rows;
+    }
+
+    private static List<Match.Kind> kinds(List<Match> matches) {
+        return matches.stream().map(Match::kind).toList();
+    }
+
+    private static String row(Match.Kind kind, long line, long offset, String text) {
+        return kind + ":" + line + ":" + offset + ":" + text;
+    }
+}
@@ -0,0 +1,69 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// --max-total keeps the first N matches in output order, which with several
+// workers is still the order the files were given in, and ends with the -A
+// context of the last one kept.
+class MaxTotalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void firstMatchesInFileOrder() throws IOException, InterruptedException {
+        List<Path> files = files();
+        for (int workers : new int[] {1, 4, 8}) {
+            assertEquals(List.of("f1:1:needle 1a", "f1:3:needle 1b", "f2:2:needle 2a", "f3:1:needle 3a"),
+                search(files, workers, "--max-total", "4"), workers + " workers");
+        }
+    }
+
+    @Test
+    void trailingContextOfTheLastMatch() throws IOException, InterruptedException {
+        List<Path> files = files();
+        for (int workers : new int[] {1, 4, 8}) {
+            // The match after the N-th falls in its context, and is shown as context
+            assertEquals(List.of("f1:1:needle 1a", "f1:2:-x", "--", "f1:3:needle 1b", "f1:4:-y", "--", "f2:2:needle 2a", "--",
+                    "f3:1:needle 3a", "f3:2:-needle 3b", "--"),
+                search(files, workers, "--max-total", "4", "-A", "1"), workers + " workers");
+        }
+    }
+
+    // Ahead of the limit, in files that finish before the ones in front of them
+    private List<Path> files() throws IOException {
+        List<Path> files = new ArrayList<>();
+        files.add(Files.writeString(dir.resolve("f1"), "needle 1a\nx\nneedle 1b\n" + "y\n".repeat(200_000)));
+        files.add(Files.writeString(dir.resolve("f2"), "y\nneedle 2a\n"));
+        files.add(Files.writeString(dir.resolve("f3"), "needle 3a\nneedle 3b\nz\nneedle 3c\n"));
+        for (int i = 4; i <= 12; i++) {
+            files.add(Files.writeString(dir.resolve("f" + i), "needle " + i + "a\n"));
+        }
+        return files;
+    }
+
+    // file:line:text for lines, with context marked by a '-' before the text,
+    // and "--" for separators
+    private static List<String> search(List<Path> files, int workers, String... limit) throws InterruptedException {
+        List<String> args = new ArrayList<>(List.of("-j", String.valueOf(workers)));
+        args.addAll(List.of(limit));
+        args.add("needle");
+        List<String> found = Collections.synchronizedList(new ArrayList<>());
+        SearchStats stats = new SearchEngine(SearchOptions.parse(args)).searchFiles(files, match -> found.add(
+            match.kind() == Match.Kind.SEPARATOR ? "--"
+                : match.file().getFileName() + ":" + match.lineNumber() + ":"
+                    + (match.kind() == Match.Kind.CONTEXT ? "-" : "") + match.text()));
+        assertEquals("match limit reached", stats.stopReason);
+        return found;
+    }
+}
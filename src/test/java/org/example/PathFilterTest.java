@@ -0,0 +1,92 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// A tree with .gitignore files at two levels, searched by walking and checked
+// path by path as the index does; both must keep the same files.
+class PathFilterTest {
+
+    private static final List<String> FILES = List.of(
+        "a.txt", "app.log", "keep.log", "top.txt", "x.tmp", "#hash.txt", "hash.txt",
+        "build/out.txt", "build/keep.txt",
+        "docs/a.md", "docs/a.txt", "docs/deep/b.md",
+        "logs/trace.txt", "logs/a/b/trace.txt", "logs/other.txt",
+        "sub/top.txt", "sub/app.log", "sub/debug.log", "sub/y.tmp", "sub/docs/c.md",
+        "sub/build/out.txt", "sub/deeper/debug.log");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void gitignoreRules() throws IOException {
+        tree();
+        Set<String> expected = new TreeSet<>(List.of(
+            "a.txt", "keep.log", "x.tmp", "hash.txt",
+            "docs/a.txt", "docs/deep/b.md",
+            "logs/other.txt",
+            "sub/top.txt", "sub/debug.log", "sub/docs/c.md",
+            "sub/deeper/debug.log"));
+
+        assertEquals(expected, search());
+
+        PathFilter filter = new PathFilter(SearchOptions.parse(List.of("-r", "needle")), dir);
+        Set<String> accepted = new TreeSet<>();
+        for (String file : FILES) {
+            if (filter.accepts(Path.of(file), 7)) accepted.add(file);
+        }
+        assertEquals(expected, accepted, "path by path");
+    }
+
+    @Test
+    void noIgnoreKeepsEverything() throws IOException {
+        tree();
+        assertEquals(new TreeSet<>(FILES), search("--no-ignore"));
+    }
+
+    private void tree() throws IOException {
+        for (String file : FILES) {
+            Path path = dir.resolve(file);
+            Files.createDirectories(path.getParent());
+            Files.writeString(path, "needle\n");
+        }
+        Files.writeString(dir.resolve(".gitignore"), String.join("\n",
+            "# a comment",
+            "*.log",
+            "!keep.log",
+            "build/",
+            "!build/keep.txt",
+            "/top.txt",
+            "docs/*.md",
+            "logs/**/trace.txt",
+            "\\#hash.txt",
+            ""));
+        Files.writeString(dir.resolve("sub/.gitignore"), "!debug.log\n*.tmp\n");
+        Files.writeString(dir.resolve("sub/deeper/.ignore"), "# nothing but a comment\n");
+    }
+
+    // Files under dir with a match, '/'-separated
+    private Set<String> search(String... extra) {
+        List<String> args = new ArrayList<>(List.of(extra));
+        args.addAll(List.of("-r", "needle"));
+        Set<String> found = new ConcurrentSkipListSet<>();
+        try {
+            new SearchEngine(SearchOptions.parse(args)).searchDirectory(dir, match ->
+                found.add(dir.relativize(match.file()).toString().replace('\\', '/')));
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        return new TreeSet<>(found);
+    }
+}
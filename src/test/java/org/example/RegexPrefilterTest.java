@@ -0,0 +1,175 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// RegexAutomaton and RegexAnalyzer may only ever rule out lines that Pattern
+// would not match, or search results are silently lost. Every regex here is run
+// through Pattern next to the automaton, the prefilter literals, the byte search
+// and the matcher LineMatcher.compile builds, on tricky lines and on random ones
+// made of the regex's own chars.
+class RegexPrefilterTest {
+
+    private static final int RANDOM_LINES = 300;
+
+    private static final List<String> LINES = List.of(
+        "", "a", "ab", "ac", "abc", "xabcx", "abbbc", "aab", "Ab", "AbC", "abc abc", "ab\r",
+        "foobarbaz", "foo baz", "barbaz", "foobar", "foobaz", "ace", "abe", "acde", "xyzw", "yzyzw",
+        "colour", "color", "colouur", "xxy", "xxxy", "xy",
+        "a]b", "]b", "a\\]c", "x]c", "]]", "a.b", "a+b", "a+++", "aXb", "\\Q", "\\E",
+        "needle", "NEEDLE", "nEeDlE", "hay needle hay",
+        "the \u212aelvin scale", "KELVIN", "kelvin", "\u017fleep", "SLEEP", "sleep",
+        "\u0131st", "\u0130ST", "ist", "stra\u00dfe", "STRASSE", "\u00e9t\u00e9", "\u00c9T\u00c9", "e\u0301t\u00e9",
+        "cat", "a cat sat", "concat", "cats", "catalog", "Cat.", "_cat_", "cat9",
+        "hello hello", "hello world", "aa", "a a", "abab", "abcabc",
+        "tab\there", "\u00e9", "\u65e5\u672c\u8a9e", "\ud83d\ude00 smile", "12345", "x12y", "  ", "A1b2",
+        "x", "x\ud83d\ude00", "ab\ud83d\ude00\ud83d\ude00", "\ud83d\ude00\ud83d\ude00x", "a\ud83d\ude01b");
+
+    @Test
+    void alternationInsideGroups() {
+        agree("(foo|bar)baz", "a(b|cd|)e", "(?:x|yz)+w", "(a|ab)(c|bcd)", "x(?:ab|cd)*y", "(cat|dog)s?",
+            "foo(bar|baz)", "(a|b|)c", "((a|b)c|d)e");
+    }
+
+    @Test
+    void optionalAndCountedAtomsAfterLiterals() {
+        agree("ab{0}c", "abc?d", "ab*c", "colou?r", "x{2,3}y", "(ab){0}c", "ab{0,1}c", "a?b?c?",
+            "ab+c", "colou*r", "x{0}", "abc{2}", "(?:ab)?c", "ab*?c", "ab++c", "ab{1,}c");
+    }
+
+    @Test
+    void escapes() {
+        agree("\\Qa.b\\E", "\\Qa+\\E+", "x\\Q]\\E", "\\Q\\E", "\\x{41}b", "\\x41b", "\\u00e9t", "\\t",
+            "a\\.b", "\\d+x", "\\Qa\\Eb*", "(?<n>ab)\\k<n>", "(?<w>\\w)\\k<w>", "\\\\Q", "\\0141b",
+            "\\cIhere", "\\p{L}+t\\p{L}", "\\R", "a\\+b");
+    }
+
+    @Test
+    void classesHoldingBrackets() {
+        agree("[]a]b", "[^]a]b", "[a\\]]c", "[\\]]", "x[]]c", "[a-c&&[^b]]", "[\\[\\]]+", "[^\\]]+b",
+            "[.]b", "[a]b]", "[]]");
+    }
+
+    @Test
+    void supplementaryCharsUnderQuantifiers() {
+        agree("x\ud83d\ude00?", "ab\ud83d\ude00*", "ab\ud83d\ude00{0}c", "\ud83d\ude00+x", "ab\ud83d\ude00{2}",
+            "x\\\ud83d\ude00?", "(\ud83d\ude00)?ab", "[\ud83d\ude00\ud83d\ude01]x", "a\ud83d\ude01?b",
+            "\ud83d\ude00|xy");
+    }
+
+    @Test
+    void inlineFlags() {
+        agree("(?i)needle", "a(?i)bc", "(?i:ab)c", "(?-i)ab", "(?i)k", "(?iu)\u00e9t\u00e9", "(?x) a b c",
+            "(?s)a.b", "(?m)^ab$", "(?i)stra\u00dfe");
+    }
+
+    @Test
+    void caseInsensitiveNonAsciiFolds() {
+        for (String term : List.of("kelvin", "sleep", "ist", "k", "s", "i", "ks", "needle", "stra\u00dfe", "\u00e9t\u00e9",
+                "\u00c9T\u00c9", "a[kK]", "k+", "[k-s]e", "\u212aelvin", "\u017fleep", "\\w+st")) {
+            agree(term, false);
+        }
+    }
+
+    @Test
+    void lookaround() {
+        agree("foo(?=bar)", "(?<!x)abc", "a(?!b)", "(?<=a)b", "(?=ab)a", "cat(?!s)", "(?<!con)cat",
+            "(?>ab|a)c");
+    }
+
+    @Test
+    void wordBoundaries() {
+        agree("\\bcat\\b", "\\Bcat", "cat\\B", "\\b\\w+\\b", "\\bc", "t\\b", "\\b");
+    }
+
+    @Test
+    void backreferences() {
+        agree("(a)\\1", "(\\w+) \\1", "(ab)c?\\1", "(?:(a)|b)\\1", "(a|b)\\1+", "(hello) \\1");
+    }
+
+    @Test
+    void anchorsAndDots() {
+        agree("^abc", "abc$", "^$", "^", "$", "^a.c$", "a..b", ".", ".*", "^.+$", "a.*c", "\\Aab", "ab\\z", "ab\\Z");
+    }
+
+    private static void agree(String... regexes) {
+        for (String regex : regexes) {
+            agree(regex, true);
+            agree(regex, false);
+        }
+    }
+
+    private static void agree(String regex, boolean caseSensitive) {
+        Pattern pattern = caseSensitive
+            ? Pattern.compile(regex)
+            : Pattern.compile(regex, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        RegexAutomaton automaton = RegexAutomaton.compile(regex, caseSensitive);
+        List<String> prefilter = RegexAnalyzer.prefilter(regex, caseSensitive);
+        LineMatcher matcher = LineMatcher.compile(regex, caseSensitive);
+
+        for (String line : lines(regex)) {
+            Matcher m = pattern.matcher(line);
+            boolean found = m.find();
+            String what = "/" + regex + "/" + (caseSensitive ? "" : "i") + " on \"" + line + "\"";
+
+            LineMatcher.Hit hit = matcher.find(line);
+            assertEquals(found, hit != null, "matcher for " + what);
+            if (!found) continue;
+            assertEquals(m.start(), hit.start(), "match start for " + what);
+            assertEquals(m.end(), hit.end(), "match end for " + what);
+
+            if (automaton != null) {
+                assertTrue(automaton.mayMatch(line), "automaton for " + what);
+            }
+            if (!prefilter.isEmpty()) {
+                assertTrue(prefilter.stream().anyMatch(literal -> contains(line, literal, caseSensitive)),
+                    "prefilter " + prefilter + " for " + what);
+            }
+            if (matcher instanceof ByteSearcher searcher) {
+                byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                int at = searcher.indexIn(ByteBuffer.wrap(bytes), 0, bytes.length);
+                assertTrue(at >= 0, "byte search for " + what);
+            }
+        }
+    }
+
+    // The way the byte searchers look for a literal: ASCII case folding only
+    private static boolean contains(String line, String literal, boolean caseSensitive) {
+        return caseSensitive ? line.contains(literal) : asciiLower(line).contains(asciiLower(literal));
+    }
+
+    private static String asciiLower(String s) {
+        StringBuilder b = new StringBuilder(s.length());
+        for (char c : s.toCharArray()) b.append(c >= 'A' && c <= 'Z' ? (char) (c + 32) : c);
+        return b.toString();
+    }
+
+    // LINES, then random lines of the regex's own chars, their other case, and
+    // the chars that fold to ASCII letters only with Unicode case folding
+    private static List<String> lines(String regex) {
+        StringBuilder alphabet = new StringBuilder(" ]\\.\u212a\u017f\u0131\u0130\u00e9");
+        for (char c : regex.toCharArray()) {
+            alphabet.append(c).append(String.valueOf(c).toUpperCase(Locale.ROOT).charAt(0));
+        }
+        Random random = new Random(regex.hashCode());
+        List<String> lines = new ArrayList<>(LINES);
+        for (int i = 0; i < RANDOM_LINES; i++) {
+            StringBuilder line = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) line.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+}